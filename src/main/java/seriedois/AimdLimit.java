@@ -0,0 +1,59 @@
+package seriedois;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive increase / multiplicative decrease limit.
+ *
+ * The limit grows by one while the region is being used and every sample stays under
+ * the latency threshold, and it is cut by the backoff ratio as soon as one sample goes over it.
+ */
+public class AimdLimit implements ConcurrencyLimit {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final long thresholdNanos;
+
+    private int limit;
+
+    /**
+     *
+     * @param initialLimit limit used before any sample is taken
+     * @param minLimit lowest limit the algorithm can reach
+     * @param maxLimit highest limit the algorithm can reach
+     * @param backoffRatio factor applied to the limit on overload, between 0.5 and 1
+     * @param threshold latency above which a sample is considered an overload, in milliseconds
+     */
+    public AimdLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio, int threshold) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= min <= initial <= max");
+        }
+        if (backoffRatio < 0.5 || backoffRatio >= 1.0) {
+            throw new IllegalArgumentException("backoffRatio must be in [0.5, 1)");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public int onSample(long rttNanos, int inFlight) {
+        if (rttNanos > thresholdNanos) {
+            limit = Math.max(minLimit, (int) (limit * backoffRatio));
+        } else if (inFlight * 2 >= limit) {    // only grow when the current limit is actually used
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,147 @@
+package seriedois;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import utils.PowerOfTwo;
+
+/*
+ * Tail, written by producers, and head, written by consumers, each on its own cache line, see CacheLinePad
+ */
+
+abstract class BoundedQueueTail extends CacheLinePad {
+    static final AtomicLongFieldUpdater<BoundedQueueTail> TAIL =
+            AtomicLongFieldUpdater.newUpdater(BoundedQueueTail.class, "tail");
+
+    volatile long tail;
+}
+
+abstract class BoundedQueuePad1 extends BoundedQueueTail {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class BoundedQueueHead extends BoundedQueuePad1 {
+    static final AtomicLongFieldUpdater<BoundedQueueHead> HEAD =
+            AtomicLongFieldUpdater.newUpdater(BoundedQueueHead.class, "head");
+
+    volatile long head;
+}
+
+abstract class BoundedQueuePad2 extends BoundedQueueHead {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
+
+/*
+ * Bounded multi-producer multi-consumer queue (Dmitry Vyukov)
+ *
+ * Every slot of a preallocated array has a sequence number. A slot is free for the producer
+ * of position pos when its sequence is pos, and holds data for the consumer of position pos
+ * when its sequence is pos + 1. Producers and consumers claim positions with a CAS on
+ * tail and head, and nothing is allocated per datum.
+ */
+
+public class BoundedConcurrentQueue_<T> extends BoundedQueuePad2 implements ProducerConsumerQueue<T> {
+
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    // consumers waiting for data and producers waiting for room
+    private final WaitQueue notEmpty = new WaitQueue();
+    private final WaitQueue notFull = new WaitQueue();
+
+    // capacity is rounded up to a power of 2
+    public BoundedConcurrentQueue_(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = PowerOfTwo.ceil(capacity);
+        buffer = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    // enqueue a datum if there is room - returns false if the queue is full
+    public boolean tryEnqueue(T v) {
+        long pos = tail;
+        int index;
+        while (true) {
+            index = (int) pos & mask;
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (TAIL.compareAndSet(this, pos, pos + 1)) {
+                    break;
+                }
+                pos = tail;
+            } else if (dif < 0) {    // the slot still holds the datum of the previous lap
+                return false;
+            } else {    // another producer took the position
+                pos = tail;
+            }
+        }
+        buffer[index] = v;
+        // publish the datum. A volatile write, not lazySet, so it can't be reordered with
+        // the read of the waiters count in signal and lose a wake up
+        sequences.set(index, pos + 1);
+        notEmpty.signal();
+        return true;
+    }
+
+    // enqueue a datum - spinning for a while and then parking while the queue is full
+    public void enqueue(T v) throws InterruptedException {
+        notFull.await(() -> tryEnqueue(v) ? Boolean.TRUE : null, false, 0);
+    }
+
+    // enqueue a datum, waiting at most timeout for room - returns false if it expires
+    public boolean offer(T v, long timeout, TimeUnit unit) throws InterruptedException {
+        return notFull.await(() -> tryEnqueue(v) ? Boolean.TRUE : null, true, unit.toNanos(timeout)) != null;
+    }
+
+    // dequeue a datum - returns null if the queue is empty or the next datum isn't published yet
+    @SuppressWarnings("unchecked")
+    public T tryDequeue() {
+        long pos = head;
+        int index;
+        while (true) {
+            index = (int) pos & mask;
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (HEAD.compareAndSet(this, pos, pos + 1)) {
+                    break;
+                }
+                pos = head;
+            } else if (dif < 0) {    // nothing published in this position yet
+                return null;
+            } else {    // another consumer took the position
+                pos = head;
+            }
+        }
+        T v = (T) buffer[index];
+        buffer[index] = null;
+        sequences.set(index, pos + mask + 1);    // free the slot for the next lap
+        notFull.signal();
+        return v;
+    }
+
+    // dequeue a datum - spinning for a while and then parking if necessary
+    public T dequeue() throws InterruptedException {
+        return notEmpty.await(this::tryDequeue, false, 0);
+    }
+
+    // dequeue a datum, waiting at most timeout - returns null if it expires
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return notEmpty.await(this::tryDequeue, true, unit.toNanos(timeout));
+    }
+
+    public boolean isEmpty() {
+        return head >= tail;
+    }
+}
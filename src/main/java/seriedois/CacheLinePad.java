@@ -0,0 +1,14 @@
+package seriedois;
+
+/**
+ * A cache line (64 bytes) of padding.
+ *
+ * A field written by some threads must not share a cache line with fields used by others, or each
+ * write invalidates the line for all of them (false sharing). Java gives no control over the layout
+ * of fields, but the JVM lays out the fields of a superclass before those of its subclasses, so the
+ * structures of this package put their hot fields in a chain of abstract superclasses that starts
+ * with this one and has another 8 longs after each hot field.
+ */
+abstract class CacheLinePad {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
@@ -0,0 +1,25 @@
+package seriedois;
+
+/**
+ * Algorithm that adjusts the number of threads allowed inside a throttled region
+ * from the observed time spent inside it.
+ *
+ * Each key of a {@link ThrottledRegion_} owns its own instance, and the region only
+ * calls it while holding that key's lock, so implementations need not be thread safe.
+ */
+public interface ConcurrencyLimit {
+
+    /**
+     * @return the current limit
+     */
+    int getLimit();
+
+    /**
+     * Feeds a new sample to the algorithm.
+     *
+     * @param rttNanos time between a successful tryEnter and the matching leave
+     * @param inFlight number of threads inside the region when the sample was taken
+     * @return the new limit
+     */
+    int onSample(long rttNanos, int inFlight);
+}
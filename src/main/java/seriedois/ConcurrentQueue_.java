@@ -8,89 +8,258 @@ package seriedois; /***
  * 
  ***/
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.*;
 
+/*
+ * Head, written by consumers, and tail, written by producers, each on its own cache line, see CacheLinePad
+ */
+
+abstract class ConcurrentQueueHead<N> extends CacheLinePad {
+	@SuppressWarnings("rawtypes")
+	static final AtomicReferenceFieldUpdater<ConcurrentQueueHead, Object> HEAD =
+			AtomicReferenceFieldUpdater.newUpdater(ConcurrentQueueHead.class, Object.class, "head");
+
+	volatile N head;
+}
+
+abstract class ConcurrentQueuePad1<N> extends ConcurrentQueueHead<N> {
+	long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class ConcurrentQueueTail<N> extends ConcurrentQueuePad1<N> {
+	@SuppressWarnings("rawtypes")
+	static final AtomicReferenceFieldUpdater<ConcurrentQueueTail, Object> TAIL =
+			AtomicReferenceFieldUpdater.newUpdater(ConcurrentQueueTail.class, Object.class, "tail");
+
+	volatile N tail;
+}
+
+abstract class ConcurrentQueuePad2<N> extends ConcurrentQueueTail<N> {
+	long p20, p21, p22, p23, p24, p25, p26, p27;
+}
+
  //  Fake implementation of Michael-Scott Non-blocking Queue Algorithm (Michael and Scott, 1996)
 
-public class ConcurrentQueue_<T> {
+public class ConcurrentQueue_<T> extends ConcurrentQueuePad2<ConcurrentQueue_.Node<T>> implements ProducerConsumerQueue<T>, Iterable<T> {
 
-	private static class Node<T>{
-		public AtomicReference<Node<T>> next = new AtomicReference<>();
+	// a volatile field and a shared updater instead of an AtomicReference object per node
+	static class Node<T>{
+		@SuppressWarnings("rawtypes")
+		static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+				AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+		volatile Node<T> next;
 		public final T value;
 		public Node(T value){
 			this.value = value;
 		}
 	}
 
-	private AtomicReference<Node<T>> head;
-	private AtomicReference<Node<T>> tail;
+	// consumers parked waiting for data
+	private final WaitQueue waiters = new WaitQueue();
+
+	// striped counters for size, so enqueue and dequeue don't contend on a single atomic
+	private final LongAdder enqueued = new LongAdder();
+	private final LongAdder dequeued = new LongAdder();
+
+	// where threads that lost a CAS back off and meet, null if disabled
+	private final EliminationArray<T> elimination;
 	//private AtomicBoolean isEmpty;
 
     public ConcurrentQueue_(){
+		this(false);
+    }
+
+	// with elimination, producers and consumers that lose a CAS under contention
+	// may hand the datum over directly, while the queue is empty
+    public ConcurrentQueue_(boolean elimination){
 		Node<T> dummyNode = new Node<>(null);
-        head = new AtomicReference<>(dummyNode);
-        tail = new AtomicReference<>(dummyNode);
+        head = dummyNode;
+        tail = dummyNode;
+		this.elimination = elimination ? new EliminationArray<>() : null;
         //isEmpty = new AtomicBoolean(false);
     }
 
 	// enqueue a datum	
 	public void enqueue(T v) {
 		Node<T> mynode = new Node<>(v);
+		link(mynode, mynode);
+		enqueued.increment();
+		waiters.signal();
+	}
+
+	// enqueue all the data in the collection's order, with a single link
+	public void enqueueAll(Collection<? extends T> values) {
+		Node<T> first = null, last = null;
+		for (T v : values) {
+			Node<T> node = new Node<>(v);
+			if (first == null) {
+				first = node;
+			} else {
+				Node.NEXT.lazySet(last, node);	// published by the CAS that links the chain
+			}
+			last = node;
+		}
+		if (first == null) {
+			return;
+		}
+		link(first, last);
+		enqueued.add(values.size());
+		for (int i = values.size(); i > 0 && waiters.hasWaiters(); i--) {
+			waiters.signal();
+		}
+	}
+
+	// link a chain of nodes after the last node
+	private void link(Node<T> first, Node<T> last) {
+		int attempts = 0;
 		while(true) {
-			Node<T> currTail = tail.get();
-			Node<T> tailNext = currTail.next.get();
-            if(currTail == tail.get()){
+			Node<T> currTail = tail;
+			Node<T> tailNext = currTail.next;
+            if(currTail == tail){
                 if (tailNext == null) {
                     // (1)
-                    if (currTail.next.compareAndSet(null, mynode)) {
-                        // (2)
-                        tail.compareAndSet(currTail, mynode);
+                    if (Node.NEXT.compareAndSet(currTail, null, first)) {
+                        // (2) whoever finds the tail behind moves it one node at a time
+                        TAIL.compareAndSet(this, currTail, last);
+                        return;
+                    }
+                    // lost the race for the tail, back off where a consumer may take a single datum
+                    if (elimination != null && first == last && elimination.offer(first.value, attempts++)) {
                         return;
                     }
                 }else{
                     // (2) try to finish another Thread's enqueue
-                    tail.compareAndSet(currTail, tailNext);
+                    TAIL.compareAndSet(this, currTail, tailNext);
                 }
             }
 		}
 	}
+    // dequeue a datum - returns null only if the queue is empty
     public T tryDequeue() {
-        Node<T> currHead = head.get();
-        Node<T> currTail = tail.get();
-        Node<T> headNext = currHead.next.get();
-
-        if(currHead == head.get()){ // no dequeue
-            if(currHead == currTail){
-                if(headNext == null){   // No value success
-                    return null;
-                }
-                tail.compareAndSet(currTail, headNext); // Check if queued, finish another thread's enqueue
-            } else {
-                T pValue = headNext.value;
-                if(head.compareAndSet(currHead, headNext)){
-                    return pValue;
+        int attempts = 0;
+        while (true) {
+            Node<T> currHead = head;
+            Node<T> currTail = tail;
+            Node<T> headNext = currHead.next;
+
+            if (currHead == head) { // head, tail and next are consistent
+                if (currHead == currTail) {
+                    if (headNext == null) {   // really empty
+                        return null;
+                    }
+                    TAIL.compareAndSet(this, currTail, headNext); // finish another thread's enqueue and retry
+                } else {
+                    T pValue = headNext.value;
+                    if (HEAD.compareAndSet(this, currHead, headNext)) {
+                        dequeued.increment();
+                        return pValue;
+                    }
+                    // lost the race for the head, back off where a producer may hand a datum over
+                    if (elimination != null && (pValue = elimination.poll(this::isEmpty, attempts++)) != null) {
+                        dequeued.increment();
+                        return pValue;
+                    }
                 }
             }
         }
-        return null;
     }
 
-	// dequeue a datum - spinning if necessary
-	public T dequeue() throws InterruptedException {
-		T v;
-		while ((v = tryDequeue()) == null) {
-			Thread.sleep(0);
+	// dequeue up to max data into the collection, with a single head CAS - returns the number of data
+	public int drainTo(Collection<? super T> to, int max) {
+		if (max <= 0) {
+			return 0;
+		}
+		while (true) {
+			Node<T> currHead = head;
+			Node<T> currTail = tail;
+			Node<T> first = currHead.next;
+
+			if (currHead == head) {	// head, tail and next are consistent
+				if (currHead == currTail) {
+					if (first == null) {
+						return 0;
+					}
+					TAIL.compareAndSet(this, currTail, first);	// finish another thread's enqueue and retry
+				} else {
+					// claim nodes up to max, but never past the tail
+					Node<T> last = first;
+					int count = 1;
+					while (count < max && last != currTail) {
+						last = last.next;
+						count++;
+					}
+					if (HEAD.compareAndSet(this, currHead, last)) {
+						dequeued.add(count);
+						for (Node<T> node = first; ; node = node.next) {
+							to.add(node.value);
+							if (node == last) {
+								return count;
+							}
+						}
+					}
+				}
+			}
 		}
-		return v;
+	}
+
+	public int drainTo(Collection<? super T> to) {
+		return drainTo(to, Integer.MAX_VALUE);
+	}
+
+	// dequeue a datum - spinning for a while and then parking if necessary
+	public T dequeue() throws InterruptedException {
+		return waiters.await(this::tryDequeue, false, 0);
+	}
+
+	// dequeue a datum, waiting at most timeout - returns null if it expires
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return waiters.await(this::tryDequeue, true, unit.toNanos(timeout));
 	}
 	
 	public boolean isEmpty() {
-        Node<T> currTail = tail.get();
-		return head.compareAndSet(currTail, currTail);
-    }
+		return head.next == null;
+	}
+
+	// the datum tryDequeue would return, without removing it - null if the queue is empty
+	public T peek() {
+		Node<T> first = head.next;
+		return first == null ? null : first.value;
+	}
+
+	// approximate number of data, the counters are read one after the other and not atomically
+	public int size() {
+		long size = enqueued.sum() - dequeued.sum();
+		return size <= 0 ? 0 : (int) Math.min(size, Integer.MAX_VALUE);
+	}
+
+	// weakly consistent iterator: never throws ConcurrentModificationException and returns each
+	// datum at most once, it may or may not see data enqueued or dequeued after its creation
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			// dequeued nodes keep their next link, so the walk can't fall off the list
+			private Node<T> next = head.next;
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public T next() {
+				Node<T> node = next;
+				if (node == null) {
+					throw new NoSuchElementException();
+				}
+				next = node.next;
+				return node.value;
+			}
+		};
+	}
 	
 	//
 	// Test code
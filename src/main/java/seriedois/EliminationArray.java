@@ -0,0 +1,95 @@
+package seriedois;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Elimination array with exponential backoff for FIFO queues (Moir, Nussbaum, Shalev and Shavit).
+ *
+ * A producer that lost a CAS on the queue offers its datum in a random slot for a while, instead
+ * of retrying at once, and a consumer that lost a CAS looks for an offer. The consumer only takes
+ * the offer if the queue is empty after it saw it, so the pair can be linearized at that moment
+ * as an enqueue followed by the dequeue of the same datum, and FIFO order is kept.
+ *
+ * The longer a thread has been failing, the longer it waits in the array.
+ */
+class EliminationArray<T> {
+
+    private static final int MIN_SPINS = 16;
+    private static final int MAX_SHIFT = 6;
+
+    /**
+     * A new object per offer, so a producer can't withdraw another producer's offer of the same datum
+     */
+    private static final class Offer<T> {
+        final T item;
+
+        Offer(T item) {
+            this.item = item;
+        }
+    }
+
+    private final AtomicReferenceArray<Offer<T>> slots;
+
+    EliminationArray() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    EliminationArray(int size) {
+        slots = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Offers the datum to a consumer for a while.
+     *
+     * @param item datum to hand over
+     * @param attempt number of times the caller already failed on the queue
+     * @return true if a consumer took the datum, false if the caller must retry on the queue
+     */
+    boolean offer(T item, int attempt) {
+        int index = ThreadLocalRandom.current().nextInt(slots.length());
+        int spins = spins(attempt);
+        Offer<T> offer = new Offer<>(item);
+        if (!slots.compareAndSet(index, null, offer)) {
+            // slot busy, only back off. The volatile reads keep the loop from being removed
+            for (int i = 0; i < spins; i++) {
+                slots.get(index);
+            }
+            return false;
+        }
+        for (int i = 0; i < spins; i++) {
+            if (slots.get(index) != offer) {
+                return true;
+            }
+        }
+        // withdraw, unless a consumer took it in the meantime
+        return !slots.compareAndSet(index, offer, null);
+    }
+
+    /**
+     * Waits a while for an offer and takes it if the queue is empty.
+     *
+     * @param isEmpty tells if the queue is empty, checked after the offer is seen
+     * @param attempt number of times the caller already failed on the queue
+     * @return the datum taken, null if there was none
+     */
+    T poll(BooleanSupplier isEmpty, int attempt) {
+        int index = ThreadLocalRandom.current().nextInt(slots.length());
+        int spins = spins(attempt);
+        for (int i = 0; i < spins; i++) {
+            Offer<T> offer = slots.get(index);
+            if (offer != null) {
+                if (isEmpty.getAsBoolean() && slots.compareAndSet(index, offer, null)) {
+                    return offer.item;
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static int spins(int attempt) {
+        return MIN_SPINS << Math.min(attempt, MAX_SHIFT);
+    }
+}
@@ -0,0 +1,75 @@
+package seriedois;
+
+/**
+ * Gradient (Vegas like) limit.
+ *
+ * Compares each sample with the lowest latency seen recently (the latency without queueing)
+ * and scales the limit by that ratio, leaving room for sqrt(limit) queued threads.
+ * The lowest latency is forgotten every {@code probeInterval} samples so the algorithm
+ * follows changes in the backend.
+ */
+public class GradientLimit implements ConcurrencyLimit {
+
+    private static final double TOLERANCE = 2.0;
+
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int probeInterval;
+
+    private double estimatedLimit;
+
+    private long rttNoLoad = Long.MAX_VALUE;
+
+    private int samples;
+
+    /**
+     *
+     * @param initialLimit limit used before any sample is taken
+     * @param minLimit lowest limit the algorithm can reach
+     * @param maxLimit highest limit the algorithm can reach
+     * @param probeInterval number of samples after which the no load latency is measured again
+     */
+    public GradientLimit(int initialLimit, int minLimit, int maxLimit, int probeInterval) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= min <= initial <= max");
+        }
+        if (probeInterval < 1) {
+            throw new IllegalArgumentException("probeInterval must be positive");
+        }
+        this.estimatedLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.probeInterval = probeInterval;
+    }
+
+    @Override
+    public int getLimit() {
+        return (int) estimatedLimit;
+    }
+
+    @Override
+    public int onSample(long rttNanos, int inFlight) {
+        if (++samples % probeInterval == 0) {
+            rttNoLoad = rttNanos;
+        } else if (rttNanos < rttNoLoad) {
+            rttNoLoad = rttNanos;
+        }
+        rttNanos = Math.max(1, rttNanos);
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * rttNoLoad / rttNanos));
+
+        // Don't grow the limit when it isn't being used
+        if (gradient == 1.0 && inFlight * 2 < estimatedLimit) {
+            return (int) estimatedLimit;
+        }
+
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        return (int) estimatedLimit;
+    }
+}
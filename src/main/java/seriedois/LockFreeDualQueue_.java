@@ -155,70 +155,322 @@ int dequeue(dualqueue *Q{, thread_id r})
 
 public class LockFreeDualQueue_<T> {
 
-	// types of queue nodes
-	private enum NodeType { DATUM, REQUEST };
-	
-	// the queue node
-	private static class QNode<T> {
-		NodeType type;
-		final T data;
-		final AtomicReference<QNode<T>> request; 
-		final AtomicReference<QNode<T>> next;
+	// the queue node, a datum or a request. Its fields are accessed through shared field
+	// updaters, so each node is a single object
+	private static final class QNode {
+		// the type tag and, for a datum node a producer waits on, its state packed in one int
+		static final int DATUM = 0, REQUEST = 1, TYPE = 1;
+		static final int WAITING = 0, TAKEN = 2, CANCELLED = 4;
+		
+		static final AtomicIntegerFieldUpdater<QNode> MODE =
+				AtomicIntegerFieldUpdater.newUpdater(QNode.class, "mode");
+		static final AtomicReferenceFieldUpdater<QNode, Object> REQUEST_SLOT =
+				AtomicReferenceFieldUpdater.newUpdater(QNode.class, Object.class, "request");
+		static final AtomicReferenceFieldUpdater<QNode, QNode> NEXT =
+				AtomicReferenceFieldUpdater.newUpdater(QNode.class, QNode.class, "next");
+		
+		volatile int mode;
+		Object data;
+		
+		// the datum handed over to the consumer waiting on this request node, or CANCELLED
+		volatile Object request;
+		volatile QNode next;
+		
+		// the consumer waiting on a request node, or the producer waiting on a datum node
+		// in synchronous mode, published by the CAS that links the node
+		Thread waiter;
+		
+		QNode() {
+		}
 		
 		//  build a datum or request node
-		QNode(T d, NodeType t) {
-			type = t;
+		QNode(int type, Object d, Thread w) {
+			mode = type;
 			data = d;
-			request = new AtomicReference<QNode<T>>(null);
-			next = new AtomicReference<QNode<T>>(null);
+			waiter = w;
+		}
+		
+		boolean isRequest() {
+			return (mode & TYPE) == REQUEST;
 		}
 	}
 	
+	// put in the request slot by a consumer that gave up waiting
+	private static final Object CANCELLED = new Object();
+	
+	// returned by insert when the datum was handed over to a consumer
+	private static final QNode HANDED_OVER = new QNode();
+	
 	// the head and tail references
-	private final AtomicReference<QNode<T>> head;
-	private final AtomicReference<QNode<T>> tail;
+	private final AtomicReference<QNode> head;
+	private final AtomicReference<QNode> tail;
+	
+	// where threads that lost a CAS back off and meet, null if disabled
+	private final EliminationArray<T> elimination;
+	
+	// zero capacity, producers wait until a consumer takes their datum
+	private final boolean synchronous;
 	
 	public LockFreeDualQueue_() {
-		QNode<T> sentinel = new QNode<T>(null, NodeType.DATUM);
-		head = new AtomicReference<QNode<T>>(sentinel);
-		tail = new AtomicReference<QNode<T>>(sentinel);
+		this(false, false);
+	}
+	
+	// with elimination, producers and consumers that lose a CAS under contention may hand
+	// the datum over directly, while the queue holds neither data nor requests
+	public LockFreeDualQueue_(boolean elimination) {
+		this(elimination, false);
+	}
+	
+	// in synchronous mode data are only handed over from put or offer to a consumer,
+	// as in a SynchronousQueue, and enqueue can't be used
+	public LockFreeDualQueue_(boolean elimination, boolean synchronous) {
+		QNode sentinel = new QNode(QNode.DATUM, null, null);
+		head = new AtomicReference<QNode>(sentinel);
+		tail = new AtomicReference<QNode>(sentinel);
+		this.elimination = elimination ? new EliminationArray<T>() : null;
+		this.synchronous = synchronous;
+	}
+	
+	public boolean isSynchronous() {
+		return synchronous;
+	}
+	
+	// enqueue a datum - fulfilling the oldest request, if any
+	public void enqueue(T v) {
+		if (synchronous) {
+			throw new IllegalStateException("a synchronous queue has no room, use put or offer");
+		}
+		insert(v, null, true);
+	}
+	
+	// enqueue a datum, in synchronous mode waiting until a consumer takes it
+	public void put(T v) throws InterruptedException {
+		if (!synchronous) {
+			enqueue(v);
+			return;
+		}
+		transfer(v);
+	}
+	
+	// enqueue a datum, in synchronous mode waiting at most timeout until a consumer
+	// takes it - returns false if it expires and the datum wasn't taken
+	public boolean offer(T v, long timeout, TimeUnit unit) throws InterruptedException {
+		if (!synchronous) {
+			enqueue(v);
+			return true;
+		}
+		return tryTransfer(v, timeout, unit);
+	}
+	
+	// hand the datum over only if a consumer is waiting - returns false, without
+	// enqueuing it, otherwise
+	public boolean tryTransfer(T v) {
+		return insert(v, null, false) == HANDED_OVER;
+	}
+	
+	// enqueue a datum and wait until a consumer takes it, in any mode. If interrupted
+	// the datum is withdrawn, unless it was already taken
+	public void transfer(T v) throws InterruptedException {
+		QNode n = insert(v, Thread.currentThread(), true);
+		if (n != HANDED_OVER) {
+			awaitTaken(n, false, 0);
+		}
+	}
+	
+	// enqueue a datum and wait at most timeout until a consumer takes it, in any mode
+	// - returns false if it expires, and then the datum was withdrawn
+	public boolean tryTransfer(T v, long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		QNode n = insert(v, Thread.currentThread(), nanos > 0);
+		if (n == HANDED_OVER) {
+			return true;
+		}
+		return n != null && awaitTaken(n, true, nanos);
 	}
 	
-	// enqueue a datum	
-	public void enqueue(T v) {}
+	// true if some consumer waits for a datum
+	public boolean hasWaitingConsumer() {
+		QNode p = head.get(), n;
+		for (; (n = p.next) != null && n.isRequest(); p = n) {
+			if (n.request == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// number of consumers waiting for a datum, an estimate as the queue changes while it is counted
+	public int getWaitingConsumerCount() {
+		int count = 0;
+		QNode p = head.get(), n;
+		for (; (n = p.next) != null && n.isRequest(); p = n) {
+			if (n.request == null) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	// wait until a consumer takes the datum of n - returns false if the time expired first
+	private boolean awaitTaken(QNode n, boolean timed, long nanos) throws InterruptedException {
+		for (int i = 0; i < WaitQueue.SPINS && n.mode == (QNode.DATUM | QNode.WAITING); i++)
+			;
+		long deadline = timed ? System.nanoTime() + nanos : 0;
+		while (n.mode == (QNode.DATUM | QNode.WAITING)) {
+			boolean interrupted = Thread.interrupted();
+			if (interrupted || (timed && (nanos = deadline - System.nanoTime()) <= 0)) {
+				// withdraw the datum, unless a consumer took it first
+				if (QNode.MODE.compareAndSet(n, QNode.DATUM | QNode.WAITING, QNode.DATUM | QNode.CANCELLED)) {
+					unlinkCancelled();
+					if (interrupted) {
+						throw new InterruptedException();
+					}
+					return false;
+				}
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			}
+			if (timed) {
+				LockSupport.parkNanos(this, nanos);
+			} else {
+				LockSupport.park(this);
+			}
+		}
+		return true;
+	}
+	
+	// hand the datum over to the oldest request or, when there is none and mayLink, link a
+	// datum node at the tail. The node is only allocated to be linked, a request is fulfilled
+	// with the datum itself - returns HANDED_OVER, the linked node, or null if not linked
+	private QNode insert(T v, Thread waiter, boolean mayLink) {
+		if (v == null) {
+			throw new NullPointerException();
+		}
+		QNode h, hnext, t, tnext, n = null;
+		int attempts = 0;
+		do {
+			t = tail.get();
+			h = head.get();
+			
+			if (t == h || !t.isRequest()) {
+				// queue empty, tail falling behind, or queue contains data (queue could also
+				// contain exactly one outstanding request with tail pointer as yet unswung)
+				tnext = t.next;
+				
+				if (t == tail.get()) {		// tail and next are consistent
+					if (tnext != null) {	// tail falling behind
+						tail.compareAndSet(t, tnext);
+					} else {	// try to link in the new node
+						if (!mayLink) {
+							return null;
+						}
+						if (n == null) {
+							n = new QNode(QNode.DATUM, v, waiter);
+						}
+						if (QNode.NEXT.compareAndSet(t, null, n)) {
+							tail.compareAndSet(t, n);
+							return n;
+						}
+						// lost the race for the tail, back off where a consumer may take the datum
+						if (elimination != null && elimination.offer(v, attempts++)) {
+							return HANDED_OVER;
+						}
+					}
+				}
+			} else {	// queue consists of requests
+				hnext = h.next;
+				if (t == tail.get() && hnext != null) {		// tail has not changed
+					Object req = hnext.request;
+					if (h == head.get()) {	// head, next, and req are consistent
+						// the request of hnext is fulfilled by the CAS, with no further notification
+						boolean success = req == null && QNode.REQUEST_SLOT.compareAndSet(hnext, null, v);
+						
+						// try to remove fulfilled request even if it's not mine
+						head.compareAndSet(h, hnext);
+						if (success) {
+							LockSupport.unpark(hnext.waiter);
+							return HANDED_OVER;
+						}
+					}
+				}
+			}
+		} while (true);
+	}
 
-	// dequeue a datum - spinning if necessary
+	// dequeue a datum - spinning for a while and then parking if necessary
 	public T dequeue() throws InterruptedException {
-		QNode<T> h, hnext, t, tnext, n = null;
+		return dequeue(false, 0);
+	}
+
+	// dequeue a datum, waiting at most timeout - returns null if it expires
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return dequeue(true, unit.toNanos(timeout));
+	}
+
+	@SuppressWarnings("unchecked")
+	private T dequeue(boolean timed, long nanos) throws InterruptedException {
+		QNode h, hnext, t, tnext, n = null;
+		int attempts = 0;
+		T eliminated;
 		do {
 			h = head.get();
 			t = tail.get();
 			
-			if (t == h || t.type == NodeType.REQUEST) {
+			if (t == h || t.isRequest()) {
 				// queue empty, tail falling behind, or queue contains data (queue could also
 				// contain exactly one outstanding request with tail pointer as yet unswung)
-				tnext = t.next.get();
+				tnext = t.next;
 				
 				if (t == tail.get()) {		// tail and next are consistent
 					if (tnext != null) {	// tail falling behind
 						tail.compareAndSet(t, tnext);
 					} else {	// try to link in a request for data
+						if (timed && nanos <= 0) {
+							return null;	// don't leave a request behind for nothing
+						}
 						if (n == null) {
-							n = new QNode<T>(null, NodeType.REQUEST);
+							n = new QNode(QNode.REQUEST, null, Thread.currentThread());
 						}
-						if (t.next.compareAndSet(null, n)) {
+						if (QNode.NEXT.compareAndSet(t, null, n)) {
 							// linked in request; now try to swing tail pointer
                         	tail.compareAndSet(t, n);
                         
 							// help someone else if I need to
-                        	if (h == head.get() && h.request.get() != null) {
-								head.compareAndSet(h, h.next.get());							
+                        	if (h == head.get() && (hnext = h.next) != null && hnext.request != null) {
+								head.compareAndSet(h, hnext);
 							}
 						
-							// busy waiting for a data done.
-							// we use sleep instead od yield in order to accept interrupts
-							while (t.request.get() == null) {
-								Thread.sleep(0);  // spin accepting interrupts!!!
+							// spin for a while, as the data may be handed over right away,
+							// and then park until the enqueuer that fulfils the request unparks us
+							for (int i = 0; i < WaitQueue.SPINS && n.request == null; i++)
+								;
+							long deadline = timed ? System.nanoTime() + nanos : 0;
+							boolean interrupted = false;
+							Object datum;
+							while ((datum = n.request) == null) {
+								interrupted = Thread.interrupted();
+								if (interrupted || (timed && (nanos = deadline - System.nanoTime()) <= 0)) {
+									// give up, unless an enqueuer fulfilled the request first
+									if (QNode.REQUEST_SLOT.compareAndSet(n, null, CANCELLED)) {
+										unlinkCancelled();
+										if (interrupted) {
+											throw new InterruptedException();
+										}
+										return null;
+									}
+									datum = n.request;
+									if (interrupted) {
+										Thread.currentThread().interrupt();	// keep the datum and the interrupt
+									}
+									break;
+								}
+								if (timed) {
+									LockSupport.parkNanos(this, nanos);
+								} else {
+									LockSupport.park(this);
+								}
 							}
 							
                         	// help snip my node
@@ -228,25 +480,100 @@ public class LockFreeDualQueue_<T> {
 							}
 							
 							// data is now available; read it out and go home
-							return t.request.get().data;
+							return (T) datum;
+						}
+						// lost the race for the tail, back off where a producer may hand a datum over.
+						// Only while the queue is vacant, so no datum nor earlier request is overtaken
+						if (elimination != null && (eliminated = elimination.poll(this::isVacant, attempts++)) != null) {
+							return eliminated;
 						}
 					}
 				}
 			} else {    // queue consists of real data
-				hnext = h.next.get();
+				hnext = h.next;
 				if (t == tail.get()) {
 					// head and next are consistent; read result *before* swinging head
-					T result = hnext.data;
+					T result = (T) hnext.data;
                 	if (head.compareAndSet(h, hnext)) {
-						return result;
+						// a producer may wait on the datum, take it unless the producer withdrew it
+						Thread producer = hnext.waiter;
+						if (producer == null
+								|| QNode.MODE.compareAndSet(hnext, QNode.DATUM | QNode.WAITING, QNode.DATUM | QNode.TAKEN)) {
+							hnext.data = null;	// hnext is the new dummy, don't keep the datum alive
+							LockSupport.unpark(producer);
+							return result;
+						}
 					}
 				}
 			}
 		} while (true);
     }
 	
+	// a request whose consumer gave up waiting, or a datum its producer withdrew
+	private static boolean isCancelled(QNode n) {
+		return n.request == CANCELLED || n.mode == (QNode.DATUM | QNode.CANCELLED);
+	}
+	
+	// unlink the cancelled requests and withdrawn data, so they don't pile up behind a live
+	// waiter. Those at the front are passed by head, the others are unlinked from their
+	// predecessor, as SynchronousQueue.clean does. The last node stays, as an enqueuer may be
+	// linking to it, until a later call finds it followed. Only with tail on the last node, so
+	// a lagging thread can't swing tail back onto an unlinked node. Nodes a race leaves linked
+	// are skipped: the CANCELLED request slot makes the enqueuer's CAS fail, and a consumer
+	// that can't take a withdrawn datum retries
+	private void unlinkCancelled() {
+		QNode h, hnext;
+		while (true) {
+			h = head.get();
+			hnext = h.next;
+			if (hnext == null || !isCancelled(hnext)) {
+				break;
+			}
+			if (h == tail.get()) {
+				tail.compareAndSet(h, hnext);	// never move head past tail
+			}
+			head.compareAndSet(h, hnext);
+		}
+		
+		QNode p = head.get(), n, t, tnext;
+		while ((n = p.next) != null) {
+			if (!isCancelled(n)) {
+				p = n;
+				continue;
+			}
+			t = tail.get();
+			if ((tnext = t.next) != null) {		// tail falling behind
+				tail.compareAndSet(t, tnext);
+				continue;
+			}
+			if (n == t) {
+				return;
+			}
+			QNode.NEXT.compareAndSet(p, n, n.next);
+		}
+	}
+
+	// true when the queue holds neither data nor requests
+	private boolean isVacant() {
+		return head.get().next == null;
+	}
+
+	// true when there is no datum, either nothing at all or only requests
 	public boolean isEmpty() {
-		return true;
+		QNode n = head.get().next;
+		while (n != null && isCancelled(n)) {
+			n = n.next;
+		}
+		return n == null || n.isRequest();
+	}
+	
+	// number of nodes linked after head, live or cancelled - for tests
+	int linkedNodes() {
+		int count = 0;
+		for (QNode n = head.get().next; n != null; n = n.next) {
+			count++;
+		}
+		return count;
 	}
 
 	/*
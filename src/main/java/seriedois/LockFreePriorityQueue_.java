@@ -0,0 +1,272 @@
+package seriedois;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+
+/*
+ * Lock-free priority queue on a skiplist (Lotan and Shavit, with the lock-free skiplist
+ * of Herlihy, Lev, Luchangco and Shavit)
+ *
+ * Data are kept in the skiplist ordered by priority and then by arrival, so data of equal
+ * priority leave in FIFO order. A consumer walks the bottom level from the head, claims the
+ * first node nobody claimed with a CAS, and then removes it from the list: marking a level's
+ * next reference deletes the node logically, and later searches snip it out.
+ *
+ * The lowest priority value is dequeued first. A datum enqueued while a consumer walks the
+ * list may be passed over, so the order is only guaranteed between operations that don't overlap.
+ *
+ * In relaxed mode (MultiQueue, Rihani, Sanders and Dementiev) there are several skiplists.
+ * A producer adds to a random one and a consumer takes the smaller minimum of two random ones,
+ * which spreads the contention of the head at the cost of strict ordering.
+ */
+
+public class LockFreePriorityQueue_<T> {
+
+    private static final int MAX_LEVEL = 16;
+
+    private static final class Node<T> {
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Node> CLAIMED =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "claimed");
+
+        final long priority;
+        final long seq;
+        final T item;
+        final int topLevel;
+        final AtomicMarkableReference<Node<T>>[] next;
+
+        // 1 once a consumer took the node
+        volatile int claimed;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node(long priority, long seq, T item, int topLevel) {
+            this.priority = priority;
+            this.seq = seq;
+            this.item = item;
+            this.topLevel = topLevel;
+            next = (AtomicMarkableReference<Node<T>>[]) new AtomicMarkableReference[topLevel + 1];
+            for (int level = 0; level <= topLevel; level++) {
+                next[level] = new AtomicMarkableReference<>(null, false);
+            }
+        }
+
+        boolean before(long priority, long seq) {
+            return this.priority < priority || (this.priority == priority && this.seq < seq);
+        }
+
+        boolean before(Node<T> other) {
+            return before(other.priority, other.seq);
+        }
+    }
+
+    private static final class SkipList<T> {
+        final Node<T> head = new Node<>(Long.MIN_VALUE, Long.MIN_VALUE, null, MAX_LEVEL);
+        final Node<T> tail = new Node<>(Long.MAX_VALUE, Long.MAX_VALUE, null, MAX_LEVEL);
+
+        // arrival order among data of the same priority
+        final AtomicLong sequence = new AtomicLong();
+
+        SkipList() {
+            for (int level = 0; level <= MAX_LEVEL; level++) {
+                head.next[level].set(tail, false);
+            }
+        }
+
+        // an array of one node per level, for the predecessors or successors of find
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        static <T> Node<T>[] newLevels() {
+            return (Node<T>[]) new Node[MAX_LEVEL + 1];
+        }
+
+        // fills the predecessors and successors of the key at every level, snipping marked nodes
+        boolean find(long priority, long seq, Node<T>[] preds, Node<T>[] succs) {
+            boolean[] marked = {false};
+            Node<T> pred, curr = null, succ;
+            retry:
+            while (true) {
+                pred = head;
+                for (int level = MAX_LEVEL; level >= 0; level--) {
+                    curr = pred.next[level].getReference();
+                    while (true) {
+                        succ = curr.next[level].get(marked);
+                        while (marked[0]) {     // curr is deleted, snip it
+                            if (!pred.next[level].compareAndSet(curr, succ, false, false)) {
+                                continue retry;
+                            }
+                            curr = succ;
+                            succ = curr.next[level].get(marked);
+                        }
+                        if (curr.before(priority, seq)) {
+                            pred = curr;
+                            curr = succ;
+                        } else {
+                            break;
+                        }
+                    }
+                    preds[level] = pred;
+                    succs[level] = curr;
+                }
+                return curr.priority == priority && curr.seq == seq;
+            }
+        }
+
+        void add(long priority, T item) {
+            int topLevel = randomLevel();
+            Node<T> node = new Node<>(priority, sequence.getAndIncrement(), item, topLevel);
+            Node<T>[] preds = newLevels();
+            Node<T>[] succs = newLevels();
+            while (true) {
+                find(priority, node.seq, preds, succs);
+                for (int level = 0; level <= topLevel; level++) {
+                    node.next[level].set(succs[level], false);
+                }
+                // linking the bottom level adds the node
+                if (preds[0].next[0].compareAndSet(succs[0], node, false, false)) {
+                    break;
+                }
+            }
+            for (int level = 1; level <= topLevel; level++) {
+                while (true) {
+                    Node<T> pred = preds[level], succ = succs[level];
+                    Node<T> nodeSucc = node.next[level].getReference();
+                    // the successor may have changed since the node was built
+                    if (nodeSucc != succ && !node.next[level].compareAndSet(nodeSucc, succ, false, false)) {
+                        return;     // marked, the node is already being removed
+                    }
+                    if (pred.next[level].compareAndSet(succ, node, false, false)) {
+                        break;
+                    }
+                    find(priority, node.seq, preds, succs);
+                }
+            }
+        }
+
+        // first node not claimed yet, null if none
+        Node<T> peekMin() {
+            for (Node<T> curr = head.next[0].getReference(); curr != tail; curr = curr.next[0].getReference()) {
+                if (curr.claimed == 0) {
+                    return curr;
+                }
+            }
+            return null;
+        }
+
+        // claim and remove the first node not claimed yet - returns null if there is none
+        T pollMin() {
+            for (Node<T> curr = head.next[0].getReference(); curr != tail; curr = curr.next[0].getReference()) {
+                if (curr.claimed == 0 && Node.CLAIMED.compareAndSet(curr, 0, 1)) {
+                    remove(curr);
+                    return curr.item;
+                }
+            }
+            return null;
+        }
+
+        // only called by the consumer that claimed the node
+        void remove(Node<T> node) {
+            for (int level = node.topLevel; level >= 0; level--) {
+                boolean[] marked = {false};
+                Node<T> succ = node.next[level].get(marked);
+                while (!marked[0]) {
+                    node.next[level].attemptMark(succ, true);
+                    succ = node.next[level].get(marked);
+                }
+            }
+            // snip it out of every level
+            find(node.priority, node.seq, newLevels(), newLevels());
+        }
+
+        private static int randomLevel() {
+            // level l with probability 1/2^(l+1)
+            return Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt() | (1 << MAX_LEVEL));
+        }
+    }
+
+    private final SkipList<T>[] lists;
+
+    // consumers waiting for data
+    private final WaitQueue waiters = new WaitQueue();
+
+    public LockFreePriorityQueue_() {
+        this(1);
+    }
+
+    /**
+     * @param queues number of skiplists, 1 for a strict priority queue and more for the relaxed mode
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public LockFreePriorityQueue_(int queues) {
+        if (queues < 1) {
+            throw new IllegalArgumentException("queues must be positive");
+        }
+        lists = (SkipList<T>[]) new SkipList[queues];
+        for (int i = 0; i < queues; i++) {
+            lists[i] = new SkipList<>();
+        }
+    }
+
+    public boolean isRelaxed() {
+        return lists.length > 1;
+    }
+
+    // enqueue a datum, lower priority values are dequeued first
+    public void enqueue(long priority, T item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        SkipList<T> list = lists.length == 1 ? lists[0] : lists[ThreadLocalRandom.current().nextInt(lists.length)];
+        list.add(priority, item);
+        waiters.signal();
+    }
+
+    // dequeue the datum with the lowest priority value - returns null only if the queue is empty
+    public T tryDequeueMin() {
+        if (lists.length == 1) {
+            return lists[0].pollMin();
+        }
+        // the better of two random choices
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int i = rnd.nextInt(lists.length), j = rnd.nextInt(lists.length - 1);
+        if (j >= i) {
+            j++;
+        }
+        Node<T> a = lists[i].peekMin(), b = lists[j].peekMin();
+        if (a != null || b != null) {
+            SkipList<T> list = b == null || (a != null && a.before(b)) ? lists[i] : lists[j];
+            T v = list.pollMin();
+            if (v != null) {
+                return v;
+            }
+        }
+        // lost a race or both empty, look at all of them before telling the queue is empty
+        for (SkipList<T> list : lists) {
+            T v = list.pollMin();
+            if (v != null) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    // dequeue the datum with the lowest priority value - spinning for a while and then parking if necessary
+    public T dequeueMin() throws InterruptedException {
+        return waiters.await(this::tryDequeueMin, false, 0);
+    }
+
+    // dequeue the datum with the lowest priority value, waiting at most timeout - returns null if it expires
+    public T pollMin(long timeout, TimeUnit unit) throws InterruptedException {
+        return waiters.await(this::tryDequeueMin, true, unit.toNanos(timeout));
+    }
+
+    public boolean isEmpty() {
+        for (SkipList<T> list : lists) {
+            if (list.peekMin() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package seriedois;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/*
+ * Unbounded multi-producer single-consumer queue (Dmitry Vyukov)
+ *
+ * Producers swap themselves into tail with getAndSet, which never fails and needs no retry,
+ * and then link the previous tail to their node with lazySet. The single consumer owns
+ * head and moves it with plain writes.
+ *
+ * Any number of threads may enqueue but only one thread may dequeue.
+ */
+
+public class MpscConcurrentQueue_<T> implements ProducerConsumerQueue<T> {
+
+    private static class Node<T> {
+        @SuppressWarnings("rawtypes")
+        static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+        volatile Node<T> next;
+        T value;
+
+        Node(T value) {
+            this.value = value;
+        }
+    }
+
+    // only touched by the consumer
+    private Node<T> head;
+
+    private final AtomicReference<Node<T>> tail;
+
+    // the consumer waiting for data
+    private final WaitQueue waiters = new WaitQueue();
+
+    public MpscConcurrentQueue_() {
+        Node<T> dummyNode = new Node<>(null);
+        head = dummyNode;
+        tail = new AtomicReference<>(dummyNode);
+    }
+
+    // enqueue a datum
+    public void enqueue(T v) {
+        Node<T> mynode = new Node<>(v);
+        Node<T> prev = tail.getAndSet(mynode);
+        Node.NEXT.lazySet(prev, mynode);
+        waiters.signal();
+    }
+
+    // dequeue a datum - returns null only if the queue is empty
+    public T tryDequeue() {
+        Node<T> next = head.next;
+        if (next == null) {
+            if (head == tail.get()) {
+                return null;
+            }
+            // a producer swapped the tail but didn't link its node yet, it will in a moment
+            while ((next = head.next) == null)
+                ;
+        }
+        T v = next.value;
+        next.value = null;  // next is the new dummy, don't keep the datum alive
+        head = next;
+        return v;
+    }
+
+    // dequeue a datum - spinning for a while and then parking if necessary
+    public T dequeue() throws InterruptedException {
+        return waiters.await(this::tryDequeue, false, 0);
+    }
+
+    // dequeue a datum, waiting at most timeout - returns null if it expires
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return waiters.await(this::tryDequeue, true, unit.toNanos(timeout));
+    }
+
+    // only exact when called by the consumer
+    public boolean isEmpty() {
+        return head == tail.get();
+    }
+}
@@ -0,0 +1,42 @@
+package seriedois;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations shared by the queues of this package, so one can replace another
+ * according to the number of producers and consumers or the need for a bound.
+ *
+ * @param <T> type of the data
+ */
+public interface ProducerConsumerQueue<T> {
+
+    /**
+     * Enqueues a datum, waiting for room if the queue is bounded
+     *
+     * @param v
+     */
+    void enqueue(T v) throws InterruptedException;
+
+    /**
+     * @return a datum, or null if the queue is empty
+     */
+    T tryDequeue();
+
+    /**
+     * Dequeues a datum, waiting until there is one
+     *
+     * @return the datum
+     */
+    T dequeue() throws InterruptedException;
+
+    /**
+     * Dequeues a datum, waiting at most timeout until there is one
+     *
+     * @param timeout
+     * @param unit
+     * @return the datum, or null if the time expired
+     */
+    T poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    boolean isEmpty();
+}
@@ -0,0 +1,144 @@
+package seriedois; /***
+ *
+ *  Throughput comparison of the queues of this package, per topology.
+ *
+ *  Each run moves ITEMS data from the producers to the consumers and reports the
+ *  data moved per millisecond, best of RUNS after WARMUP runs to let the JIT compile.
+ *
+ ***/
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+public class QueueBenchmark {
+
+	private static final int ITEMS = 2_000_000;
+	private static final int WARMUP = 3;
+	private static final int RUNS = 5;
+	private static final Integer DATUM = 42;
+
+	// returns the data moved per millisecond
+	private static double run(ProducerConsumerQueue<Integer> queue, int producers, int consumers) {
+		Thread[] threads = new Thread[producers + consumers];
+		int perProducer = ITEMS / producers;
+		int perConsumer = perProducer * producers / consumers;
+
+		for (int i = 0; i < producers; i++) {
+			threads[i] = new Thread(() -> {
+				try {
+					for (int n = 0; n < perProducer; n++) {
+						queue.enqueue(DATUM);
+					}
+				} catch (InterruptedException ie) {}
+			});
+		}
+		for (int i = producers; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				try {
+					for (int n = 0; n < perConsumer; n++) {
+						queue.dequeue();
+					}
+				} catch (InterruptedException ie) {}
+			});
+		}
+
+		long start = System.nanoTime();
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException ie) {}
+		}
+		return perConsumer * consumers / ((System.nanoTime() - start) / 1e6);
+	}
+
+	private static void compare(String name, Supplier<ProducerConsumerQueue<Integer>> factory, int producers, int consumers) {
+		for (int i = 0; i < WARMUP; i++) {
+			run(factory.get(), producers, consumers);
+		}
+		double best = 0;
+		for (int i = 0; i < RUNS; i++) {
+			best = Math.max(best, run(factory.get(), producers, consumers));
+		}
+		System.out.printf("%-32s %d->%d %10.0f ops/ms%n", name, producers, consumers, best);
+	}
+
+	// fork/join style: the owner pushes its work and takes back one element every two pushes,
+	// while the other threads take what they can - returns the elements moved per millisecond
+	private static double runOwner(Consumer<Integer> put, Supplier<Integer> ownerTake, Supplier<Integer> thiefTake, int thieves) {
+		AtomicBoolean done = new AtomicBoolean();
+		Thread[] threads = new Thread[thieves];
+		for (int i = 0; i < thieves; i++) {
+			threads[i] = new Thread(() -> {
+				while (thiefTake.get() != null || !done.get())
+					;
+			});
+		}
+
+		long start = System.nanoTime();
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (int n = 0; n < ITEMS; n++) {
+			put.accept(DATUM);
+			if ((n & 1) == 1) {
+				ownerTake.get();
+			}
+		}
+		while (ownerTake.get() != null)
+			;
+		done.set(true);
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException ie) {}
+		}
+		return ITEMS / ((System.nanoTime() - start) / 1e6);
+	}
+
+	private static void compareOwner(String name, DoubleSupplier run) {
+		for (int i = 0; i < WARMUP; i++) {
+			run.getAsDouble();
+		}
+		double best = 0;
+		for (int i = 0; i < RUNS; i++) {
+			best = Math.max(best, run.getAsDouble());
+		}
+		System.out.printf("%-32s %10.0f ops/ms%n", name, best);
+	}
+
+	public static void main(String[] args) {
+		int producers = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+
+		System.out.printf("%n--> single producer, single consumer%n");
+		compare("ConcurrentQueue_", ConcurrentQueue_::new, 1, 1);
+		compare("BoundedConcurrentQueue_", () -> new BoundedConcurrentQueue_<>(1024), 1, 1);
+		compare("MpscConcurrentQueue_", MpscConcurrentQueue_::new, 1, 1);
+		compare("SpscConcurrentQueue_", () -> new SpscConcurrentQueue_<>(1024), 1, 1);
+
+		System.out.printf("%n--> multiple producers, single consumer%n");
+		compare("ConcurrentQueue_", ConcurrentQueue_::new, producers, 1);
+		compare("BoundedConcurrentQueue_", () -> new BoundedConcurrentQueue_<>(1024), producers, 1);
+		compare("MpscConcurrentQueue_", MpscConcurrentQueue_::new, producers, 1);
+
+		System.out.printf("%n--> multiple producers, multiple consumers%n");
+		compare("ConcurrentQueue_", ConcurrentQueue_::new, producers, 2);
+		compare("ConcurrentQueue_ (elimination)", () -> new ConcurrentQueue_<>(true), producers, 2);
+		compare("BoundedConcurrentQueue_", () -> new BoundedConcurrentQueue_<>(1024), producers, 2);
+
+		int thieves = producers - 1;
+		System.out.printf("%n--> owner and %d thieves%n", thieves);
+		compareOwner("ConcurrentQueue_", () -> {
+			ConcurrentQueue_<Integer> queue = new ConcurrentQueue_<>();
+			return runOwner(queue::enqueue, queue::tryDequeue, queue::tryDequeue, thieves);
+		});
+		compareOwner("WorkStealingDeque_", () -> {
+			WorkStealingDeque_<Integer> deque = new WorkStealingDeque_<>();
+			return runOwner(deque::push, deque::pop, deque::steal, thieves);
+		});
+	}
+}
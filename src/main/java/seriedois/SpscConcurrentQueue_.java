@@ -0,0 +1,132 @@
+package seriedois;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import utils.PowerOfTwo;
+
+/*
+ * Fields of the producer and of the consumer, each on its own cache line, see CacheLinePad
+ */
+
+abstract class SpscQueueProducer extends CacheLinePad {
+    static final AtomicLongFieldUpdater<SpscQueueProducer> TAIL =
+            AtomicLongFieldUpdater.newUpdater(SpscQueueProducer.class, "tail");
+
+    volatile long tail;
+
+    // last head seen by the producer, only touched by the producer
+    long headCache;
+}
+
+abstract class SpscQueuePad1 extends SpscQueueProducer {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class SpscQueueConsumer extends SpscQueuePad1 {
+    static final AtomicLongFieldUpdater<SpscQueueConsumer> HEAD =
+            AtomicLongFieldUpdater.newUpdater(SpscQueueConsumer.class, "head");
+
+    volatile long head;
+
+    // last tail seen by the consumer, only touched by the consumer
+    long tailCache;
+}
+
+abstract class SpscQueuePad2 extends SpscQueueConsumer {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
+
+/*
+ * Bounded single-producer single-consumer queue (Lamport, with the cached indices of FastFlow)
+ *
+ * Only the producer writes tail and only the consumer writes head, so both are published
+ * with lazySet and no CAS is needed. Each side reads the other's index only when its
+ * cached copy says the queue is full (or empty).
+ *
+ * Only one thread may enqueue and only one thread may dequeue.
+ */
+
+public class SpscConcurrentQueue_<T> extends SpscQueuePad2 implements ProducerConsumerQueue<T> {
+
+    // lazySet can't be ordered with the read of the waiters count, a missed signal costs at most this
+    private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Object[] buffer;
+    private final int mask;
+
+    // the consumer waiting for data and the producer waiting for room
+    private final WaitQueue notEmpty = new WaitQueue(MAX_PARK);
+    private final WaitQueue notFull = new WaitQueue(MAX_PARK);
+
+    // capacity is rounded up to a power of 2
+    public SpscConcurrentQueue_(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = PowerOfTwo.ceil(capacity);
+        buffer = new Object[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    // enqueue a datum if there is room - returns false if the queue is full
+    public boolean tryEnqueue(T v) {
+        long t = tail;
+        if (t - headCache >= buffer.length) {
+            headCache = head;
+            if (t - headCache >= buffer.length) {
+                return false;
+            }
+        }
+        buffer[(int) t & mask] = v;
+        TAIL.lazySet(this, t + 1);    // publish the datum
+        notEmpty.signal();
+        return true;
+    }
+
+    // enqueue a datum - spinning for a while and then parking while the queue is full
+    public void enqueue(T v) throws InterruptedException {
+        notFull.await(() -> tryEnqueue(v) ? Boolean.TRUE : null, false, 0);
+    }
+
+    // enqueue a datum, waiting at most timeout for room - returns false if it expires
+    public boolean offer(T v, long timeout, TimeUnit unit) throws InterruptedException {
+        return notFull.await(() -> tryEnqueue(v) ? Boolean.TRUE : null, true, unit.toNanos(timeout)) != null;
+    }
+
+    // dequeue a datum - returns null if the queue is empty
+    @SuppressWarnings("unchecked")
+    public T tryDequeue() {
+        long h = head;
+        if (h >= tailCache) {
+            tailCache = tail;
+            if (h >= tailCache) {
+                return null;
+            }
+        }
+        int index = (int) h & mask;
+        T v = (T) buffer[index];
+        buffer[index] = null;
+        HEAD.lazySet(this, h + 1);    // free the slot
+        notFull.signal();
+        return v;
+    }
+
+    // dequeue a datum - spinning for a while and then parking if necessary
+    public T dequeue() throws InterruptedException {
+        return notEmpty.await(this::tryDequeue, false, 0);
+    }
+
+    // dequeue a datum, waiting at most timeout - returns null if it expires
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return notEmpty.await(this::tryDequeue, true, unit.toNanos(timeout));
+    }
+
+    public boolean isEmpty() {
+        return head >= tail;
+    }
+}
@@ -0,0 +1,146 @@
+package seriedois;
+
+import utils.Log2Histogram;
+
+/**
+ * Snapshot of the counters of one key of a {@link ThrottledRegion_}, or of all of them.
+ *
+ * Counters are read one at a time while threads keep entering, so a snapshot is
+ * not atomic, but each value is exact at the moment it was read.
+ */
+public class ThrottledRegionStats {
+
+    /**
+     * Number of buckets of the wait time histogram, see {@link Log2Histogram}
+     */
+    public static final int HISTOGRAM_BUCKETS = Log2Histogram.BUCKETS;
+
+    private final Integer key;
+
+    private final long entered;
+
+    private final long rejectedFull;
+
+    private final long rejectedTimeout;
+
+    private final int inside;
+
+    private final int waiting;
+
+    private final int limit;
+
+    private final long[] waitHistogram;
+
+    ThrottledRegionStats(Integer key, long entered, long rejectedFull, long rejectedTimeout,
+                         int inside, int waiting, int limit, long[] waitHistogram) {
+        this.key = key;
+        this.entered = entered;
+        this.rejectedFull = rejectedFull;
+        this.rejectedTimeout = rejectedTimeout;
+        this.inside = inside;
+        this.waiting = waiting;
+        this.limit = limit;
+        this.waitHistogram = waitHistogram;
+    }
+
+    /**
+     * Sums the counters of several keys
+     */
+    static ThrottledRegionStats aggregate(Iterable<ThrottledRegionStats> stats) {
+        long entered = 0, rejectedFull = 0, rejectedTimeout = 0;
+        int inside = 0, waiting = 0, limit = 0;
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (ThrottledRegionStats s : stats) {
+            entered += s.entered;
+            rejectedFull += s.rejectedFull;
+            rejectedTimeout += s.rejectedTimeout;
+            inside += s.inside;
+            waiting += s.waiting;
+            limit += s.limit;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                histogram[i] += s.waitHistogram[i];
+            }
+        }
+        return new ThrottledRegionStats(null, entered, rejectedFull, rejectedTimeout, inside, waiting, limit, histogram);
+    }
+
+    /**
+     * @return the key, null for the aggregate of all keys
+     */
+    public Integer getKey() {
+        return key;
+    }
+
+    /**
+     * @return number of successful enters
+     */
+    public long getEntered() {
+        return entered;
+    }
+
+    /**
+     * @return number of enters rejected because maxWaiting threads were already waiting
+     */
+    public long getRejectedFull() {
+        return rejectedFull;
+    }
+
+    /**
+     * @return number of enters rejected because the wait timed out
+     */
+    public long getRejectedTimeout() {
+        return rejectedTimeout;
+    }
+
+    /**
+     * @return number of enters, successful or not
+     */
+    public long getAttempts() {
+        return entered + rejectedFull + rejectedTimeout;
+    }
+
+    /**
+     * @return permits currently taken
+     */
+    public int getInside() {
+        return inside;
+    }
+
+    /**
+     * @return threads currently waiting
+     */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * @return current limit of permits inside
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Only threads that had to wait are counted, enters on the fast path are not.
+     *
+     * @return copy of the wait time histogram, see {@link #HISTOGRAM_BUCKETS}
+     */
+    public long[] getWaitHistogram() {
+        return waitHistogram.clone();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound, in microseconds, of the wait time of the given percentile of the waits, 0 if nobody waited
+     */
+    public long getWaitPercentile(double percentile) {
+        return Log2Histogram.percentile(waitHistogram, percentile);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: entered=%d, rejectedFull=%d, rejectedTimeout=%d, inside=%d/%d, waiting=%d, p50=%dus, p99=%dus",
+                key == null ? "all" : "key " + key, entered, rejectedFull, rejectedTimeout, inside, limit, waiting,
+                getWaitPercentile(50), getWaitPercentile(99));
+    }
+}
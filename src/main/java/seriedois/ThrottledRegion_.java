@@ -8,14 +8,27 @@ package seriedois; /***
  *
  ***/
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import utils.Log2Histogram;
+import utils.LockProfiler;
+import utils.TimeSource;
 
 public class ThrottledRegion_ {
 
@@ -25,62 +38,234 @@ public class ThrottledRegion_ {
 
     private final long waitTimeout;
 
-    private class ThrottledRegionForKey {
+    /**
+     * Creates the limit algorithm of each key, null when maxInside is static
+     */
+    private final Supplier<? extends ConcurrencyLimit> limitFactory;
+
+    /**
+     * Limit of a key never entered, the initial limit of the factory's algorithms or maxInside
+     */
+    private final int initialLimit;
+
+    /**
+     * Tokens per second of each key, 0 when entering isn't rate limited
+     */
+    private final double permitsPerSecond;
+
+    private final int burst;
+
+    /**
+     * Expires the waits in batches, null when each waiter times out by itself
+     */
+    private final TimerWheel timerWheel;
+
+    /**
+     * Time of the timeouts, the rate limit and the samples of the adaptive limit
+     */
+    private final TimeSource clock;
+
+    private class ThrottledRegionForKey implements TimerWheel.Expirable<ThrottledRegionForKey.Request> {
+
+        /**
+         * Thread waiting to enter, granted in FIFO order
+         */
+        private class Request {
+            final int permits;
+            final Condition condition;
+            boolean done;
+            boolean expired;
+
+            Request(int permits, Condition condition) {
+                this.permits = permits;
+                this.condition = condition;
+            }
+        }
 
         private Lock lock;
 
-        private Condition condition;
+        private LinkedList<Request> requests;
 
         private AtomicInteger maxInside;
 
         private volatile int maxWaiting;
 
+        /**
+         * Adaptive limit of this key, null when maxInside is static
+         */
+        private final ConcurrencyLimit limit;
+
+        /**
+         * Current limit, only changed while holding the lock
+         */
+        private volatile int currentLimit;
+
+        /**
+         * Entry timestamps of the threads inside, oldest first
+         */
+        private final Queue<Long> entries;
+
+        /**
+         * Rate limit of this key, null when entering isn't rate limited
+         */
+        private final TokenBucket bucket;
+
+        /**
+         * Outcomes of tryAcquire
+         */
+        private static final int ACQUIRED = 0, FULL = 1, NO_TOKENS = 2;
+
+        /**
+         * The first request only misses tokens, so it must wake up when they are added, as
+         * nobody signals it then. Guarded by the lock
+         */
+        private boolean waitingForTokens;
+
+        private final LongAdder entered = new LongAdder();
+
+        private final LongAdder rejectedFull = new LongAdder();
+
+        private final LongAdder rejectedTimeout = new LongAdder();
+
+        /**
+         * Wait times of the threads that waited, guarded by the lock
+         */
+        private final long[] waitHistogram = new long[ThrottledRegionStats.HISTOGRAM_BUCKETS];
+
         public ThrottledRegionForKey() {
-            this.lock = new ReentrantLock();
-            this.condition = lock.newCondition();
-            this.maxInside = new AtomicInteger(ThrottledRegion_.this.maxInside);
+            this.lock = LockProfiler.newLock("ThrottledRegion_");
+            this.requests = new LinkedList<>();
+            this.limit = limitFactory == null ? null : limitFactory.get();
+            this.currentLimit = limit == null ? ThrottledRegion_.this.maxInside : limit.getLimit();
+            this.maxInside = new AtomicInteger(currentLimit);
             this.maxWaiting = ThrottledRegion_.this.maxWaiting;
+            this.entries = limit == null ? null : new ConcurrentLinkedQueue<>();
+            this.bucket = permitsPerSecond == 0 ? null : new TokenBucket(permitsPerSecond, burst, clock);
+        }
+
+        public int getLimit() {
+            return currentLimit;
+        }
+
+        public ThrottledRegionStats getStats(int key) {
+            long[] histogram;
+            lock.lock();
+            try {
+                histogram = waitHistogram.clone();
+            } finally {
+                lock.unlock();
+            }
+            int limit = currentLimit;
+            return new ThrottledRegionStats(key, entered.sum(), rejectedFull.sum(), rejectedTimeout.sum(),
+                    Math.max(0, limit - maxInside.get()), ThrottledRegion_.this.maxWaiting - maxWaiting, limit, histogram);
+        }
+
+        private void checkPermits(int permits) {
+            if (bucket != null && permits > bucket.getBurst()) {
+                throw new IllegalArgumentException("permits can't be greater than burst");
+            }
+            if (limit == null && permits > currentLimit) {
+                throw new IllegalArgumentException("permits can't be greater than maxInside");
+            }
+        }
+
+        /**
+         * Enters only if there are permits and tokens right away and nobody is waiting before
+         */
+        public boolean tryEnterNow(int permits) {
+            checkPermits(permits);
+            lock.lock();
+            try {
+                if (!requests.isEmpty()) {
+                    grant();
+                }
+                if (requests.isEmpty() && tryAcquire(permits) == ACQUIRED) {
+                    entered.increment();
+                    return true;
+                }
+                return false;
+            } finally {
+                lock.unlock();
+            }
         }
 
-        public boolean tryEnter() throws InterruptedException {
+        public boolean tryEnter(int permits, long nanos) throws InterruptedException {
+            checkPermits(permits);
+
             // Fast Path
-            if(maxWaiting == ThrottledRegion_.this.maxWaiting && tryAcquire()){
+            if(maxWaiting == ThrottledRegion_.this.maxWaiting && tryAcquire(permits) == ACQUIRED){
+                entered.increment();
                 return true;
             }
 
             // Slow Path
             lock.lock();
             try {
+                if (!requests.isEmpty()) {
+                    grant();    // the first request may have missed permits given back by tryAcquire
+                }
+                if(requests.isEmpty()) {
+                    int acquired = tryAcquire(permits);
+                    if (acquired == ACQUIRED) {
+                        entered.increment();
+                        return true;
+                    }
+                    waitingForTokens = acquired == NO_TOKENS;
+                }
+
                 if(this.maxWaiting <= 0){   // Maxed out Waiters
+                    rejectedFull.increment();
                     return false;
                 }
 
+                Request request = new Request(permits, lock.newCondition());
+                requests.addLast(request);
                 this.maxWaiting--;
+                long start = clock.nanoTime();
+                TimerWheel.Timeout timeout = timerWheel == null ? null : timerWheel.schedule(this, request, nanos);
 
-                if(tryAcquire()) {
-                    this.maxWaiting++;
-                    return true;
-                }
-
-                long nanos = ThrottledRegion_.this.waitTimeout;
                 do {
                     try {
-                        nanos = condition.awaitNanos(nanos);
+                        // Nobody signals when a token is added, so the first request wakes up in time to
+                        // take it. While the region is full, leave and grant signal
+                        long tokens = waitingForTokens && requests.peekFirst() == request
+                                ? Math.max(1, bucket.nanosUntilAvailable(permits)) : Long.MAX_VALUE;
+                        if (timeout == null) {
+                            long wait = Math.min(nanos, tokens);
+                            nanos -= wait - clock.awaitNanos(lock, request.condition, wait);
+                        } else if (tokens == Long.MAX_VALUE) {
+                            request.condition.await();  // the timer wheel signals when it expires
+                        } else {
+                            clock.awaitNanos(lock, request.condition, tokens);
+                        }
                     } catch (InterruptedException e){
-                        this.maxWaiting++;
-                        condition.signal();
+                        if (timeout != null) {
+                            timeout.cancel();
+                        }
+                        if (request.done) {     // granted before the interrupt, so it entered
+                            Thread.currentThread().interrupt();
+                            waited(start, entered);
+                            return true;
+                        }
+                        cancel(request);
                         throw e;
                     }
 
-                    if (tryAcquire()) {
-                        this.maxWaiting++;
-                        condition.signal();
+                    if (!request.done && bucket != null) {
+                        grant();
+                    }
+
+                    if (request.done) {
+                        if (timeout != null) {
+                            timeout.cancel();
+                        }
+                        waited(start, entered);
                         return true;
                     }
 
-                    if (nanos <= 0){
-                        this.maxWaiting++;
-                        condition.signal();
+                    if (timeout == null ? nanos <= 0 : request.expired){
+                        cancel(request);
+                        waited(start, rejectedTimeout);
                         return false;
                     }
                 } while (true);
@@ -89,35 +274,125 @@ public class ThrottledRegion_ {
             }
         }
 
-        public void leave() {
+        /**
+         * Counts the outcome of a thread that waited and its wait time. Must be called holding the lock.
+         */
+        private void waited(long start, LongAdder outcome) {
+            outcome.increment();
+            waitHistogram[Log2Histogram.bucketOf(clock.nanoTime() - start)]++;
+        }
+
+        public void leave(int permits, boolean sample) {
             do {
                 int observed = maxInside.get();
-                if (maxInside.compareAndSet(observed, observed + 1)) {
+                if (maxInside.compareAndSet(observed, observed + permits)) {
                     break;
                 }
             } while (true);
 
             lock.lock();
             try {
-                if (this.maxWaiting < ThrottledRegion_.this.maxWaiting) {
-                    condition.signal();
+                if (entries != null) {
+                    Long enteredAt = entries.poll();
+                    if (enteredAt != null && sample) {
+                        adjustLimit(clock.nanoTime() - enteredAt);
+                    }
                 }
+                grant();
             } finally {
                 lock.unlock();
             }
         }
 
-        private boolean tryAcquire() {
+        /**
+         * @return ACQUIRED, FULL if there aren't enough permits, or NO_TOKENS if there are but not enough tokens
+         */
+        private int tryAcquire(int permits) {
             do {
                 int observed = maxInside.get();
-                if (observed <= 0) {
-                    return false;
+                if (observed < permits) {
+                    return FULL;
                 }
-                if (maxInside.compareAndSet(observed, observed - 1)) {
-                    return true;
+                if (maxInside.compareAndSet(observed, observed - permits)) {
+                    if (bucket != null && !bucket.tryAcquire(permits)) {
+                        // Give the permits back. A waiter that missed them is granted them when this
+                        // thread takes the slow path, or when tokens are added
+                        maxInside.addAndGet(permits);
+                        return NO_TOKENS;
+                    }
+                    if (entries != null) {
+                        entries.add(clock.nanoTime());
+                    }
+                    return ACQUIRED;
                 }
             } while (true);
         }
+
+        /**
+         * Hands the available permits to the waiting threads, in order. A thread that needs more
+         * permits than available blocks the ones behind it, so heavy requests don't starve.
+         * Must be called holding the lock.
+         */
+        private void grant() {
+            waitingForTokens = false;
+            while (!requests.isEmpty()) {
+                Request request = requests.getFirst();
+                int acquired = tryAcquire(request.permits);
+                if (acquired != ACQUIRED) {
+                    if (acquired == NO_TOKENS) {
+                        // it may be waiting for a leave, make it wait for the tokens instead
+                        waitingForTokens = true;
+                        request.condition.signal();
+                    }
+                    return;
+                }
+                requests.removeFirst();
+                this.maxWaiting++;
+                request.done = true;
+                request.condition.signal();
+            }
+        }
+
+        /**
+         * Wakes up, in one go, the requests whose wait expired in the same tick
+         */
+        @Override
+        public void expire(List<Request> expired) {
+            lock.lock();
+            try {
+                for (Request request : expired) {
+                    if (!request.done) {
+                        request.expired = true;
+                        request.condition.signal();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void cancel(Request request) {
+            requests.remove(request);
+            this.maxWaiting++;
+            grant();    // the ones behind may fit now
+        }
+
+        /**
+         * Feeds the time spent inside by the oldest thread to the limit and moves the available
+         * permits by the change in the limit. Must be called holding the lock.
+         *
+         * Leaves are matched with the oldest entry, so a single sample may belong to another
+         * thread, but the sum of all samples is always the total time spent inside.
+         */
+        private void adjustLimit(long rtt) {
+            int inFlight = Math.max(0, currentLimit - maxInside.get());
+            int newLimit = limit.onSample(rtt, inFlight);
+            int delta = newLimit - currentLimit;
+            if (delta != 0) {
+                currentLimit = newLimit;
+                maxInside.addAndGet(delta);     // may go negative, tryAcquire waits until it recovers
+            }
+        }
     }
 
     private final ConcurrentMap<Integer, ThrottledRegionForKey> keyToRegion = new ConcurrentHashMap<>();
@@ -129,17 +404,287 @@ public class ThrottledRegion_ {
      * @param waitTimeout in milliseconds!!
      */
     public ThrottledRegion_(int maxInside, int maxWaiting, int waitTimeout) {
+        this(maxInside, null, maxWaiting, waitTimeout, 0, 0, 0);
+    }
+
+    /**
+     * Creates a region whose waits expire in batches, with the given resolution,
+     * instead of each waiting thread keeping its own timer.
+     *
+     * @param maxInside
+     * @param maxWaiting
+     * @param waitTimeout in milliseconds!!
+     * @param timeoutResolution in milliseconds, waits may last up to this much longer than waitTimeout
+     */
+    public ThrottledRegion_(int maxInside, int maxWaiting, int waitTimeout, int timeoutResolution) {
+        this(maxInside, null, maxWaiting, waitTimeout, 0, 0, timeoutResolution);
+    }
+
+    /**
+     * Creates a region whose limit of each key is adjusted from the time threads spend inside.
+     *
+     * @param limitFactory creates the limit algorithm of each key, e.g. {@code () -> new GradientLimit(10, 1, 200, 1000)}
+     * @param maxWaiting
+     * @param waitTimeout in milliseconds!!
+     */
+    public ThrottledRegion_(Supplier<? extends ConcurrencyLimit> limitFactory, int maxWaiting, int waitTimeout) {
+        this(0, limitFactory, maxWaiting, waitTimeout, 0, 0, 0);
+    }
+
+    /**
+     * Creates a region that also limits how many threads enter each key per second.
+     * Use Integer.MAX_VALUE as maxInside to limit only the rate.
+     *
+     * @param maxInside
+     * @param maxWaiting
+     * @param waitTimeout in milliseconds!!
+     * @param permitsPerSecond entries allowed per second on each key
+     * @param burst entries allowed at once after the key has been idle
+     */
+    public ThrottledRegion_(int maxInside, int maxWaiting, int waitTimeout, double permitsPerSecond, int burst) {
+        this(maxInside, null, maxWaiting, waitTimeout, permitsPerSecond, burst, 0);
+    }
+
+    /**
+     * Creates a region with an adaptive limit that also limits how many threads enter each key per second.
+     *
+     * @param limitFactory creates the limit algorithm of each key
+     * @param maxWaiting
+     * @param waitTimeout in milliseconds!!
+     * @param permitsPerSecond entries allowed per second on each key
+     * @param burst entries allowed at once after the key has been idle
+     */
+    public ThrottledRegion_(Supplier<? extends ConcurrencyLimit> limitFactory, int maxWaiting, int waitTimeout,
+                            double permitsPerSecond, int burst) {
+        this(0, limitFactory, maxWaiting, waitTimeout, permitsPerSecond, burst, 0);
+    }
+
+    /**
+     * Creates a region with every option. A zero or null option is disabled.
+     *
+     * @param maxInside static limit of each key, ignored when limitFactory isn't null
+     * @param limitFactory creates the adaptive limit algorithm of each key
+     * @param maxWaiting
+     * @param waitTimeout in milliseconds!!
+     * @param permitsPerSecond entries allowed per second on each key
+     * @param burst entries allowed at once after the key has been idle
+     * @param timeoutResolution in milliseconds, resolution of the timer wheel that expires the waits
+     */
+    public ThrottledRegion_(int maxInside, Supplier<? extends ConcurrencyLimit> limitFactory, int maxWaiting,
+                            int waitTimeout, double permitsPerSecond, int burst, int timeoutResolution) {
+        this(maxInside, limitFactory, maxWaiting, waitTimeout, permitsPerSecond, burst, timeoutResolution, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Creates a region with every option whose time is given by the clock, e.g. a
+     * {@link utils.VirtualTimeSource} to drive the timeouts from a test or a simulation.
+     *
+     * @param maxInside static limit of each key, ignored when limitFactory isn't null
+     * @param limitFactory creates the adaptive limit algorithm of each key
+     * @param maxWaiting
+     * @param waitTimeout in milliseconds!!
+     * @param permitsPerSecond entries allowed per second on each key
+     * @param burst entries allowed at once after the key has been idle
+     * @param timeoutResolution in milliseconds, resolution of the timer wheel that expires the waits
+     * @param clock source of the time
+     */
+    public ThrottledRegion_(int maxInside, Supplier<? extends ConcurrencyLimit> limitFactory, int maxWaiting,
+                            int waitTimeout, double permitsPerSecond, int burst, int timeoutResolution,
+                            TimeSource clock) {
+        if (permitsPerSecond < 0 || (permitsPerSecond > 0 && burst < 1)) {
+            throw new IllegalArgumentException("permitsPerSecond can't be negative and burst must be positive");
+        }
+        if (timeoutResolution < 0) {
+            throw new IllegalArgumentException("timeoutResolution can't be negative");
+        }
         this.maxInside = maxInside;
         this.maxWaiting = maxWaiting;
         this.waitTimeout = TimeUnit.MILLISECONDS.toNanos(waitTimeout);  // Hack. waitTimeout must be in millis
+        this.limitFactory = limitFactory;
+        this.initialLimit = limitFactory == null ? maxInside : limitFactory.get().getLimit();
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.clock = clock;
+        this.timerWheel = timeoutResolution == 0 ? null
+                : new TimerWheel(timeoutResolution, TimeUnit.MILLISECONDS, Math.min(1 << 16, waitTimeout / timeoutResolution + 1), clock);
     }
 
 
     public boolean tryEnter(int key) throws InterruptedException {
-        return keyToRegion.computeIfAbsent(key, k -> new ThrottledRegionForKey()).tryEnter();
+        return tryEnter(key, 1);
+    }
+
+    /**
+     * Enters the region of the key taking several permits at once.
+     *
+     * @param key
+     * @param permits number of permits, released by {@link #leave(int, int)}
+     * @return false if there were too many waiters or the wait timed out
+     */
+    public boolean tryEnter(int key, int permits) throws InterruptedException {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        return regionFor(key).tryEnter(permits, waitTimeout);
+    }
+
+    /**
+     * Enters the regions of all the keys, or none of them.
+     * A key that appears more than once takes one permit per occurrence.
+     *
+     * The keys are entered without waiting. When one can't be entered, the others are released and the
+     * thread waits on that key alone, holding nothing else, then tries again the rest the same way.
+     * A thread never holds permits while it waits, so threads entering overlapping keys can't block
+     * each other, and all the rounds share one waitTimeout. Tokens taken from rate limited keys that
+     * are released aren't given back.
+     *
+     * @param keys
+     * @return false if the key waited for had too many waiters or the wait timed out
+     */
+    public boolean tryEnterAll(int[] keys) throws InterruptedException {
+        int[] sorted = keys.clone();
+        Arrays.sort(sorted);
+
+        long deadline = clock.nanoTime() + waitTimeout;
+        int held = -1;
+        do {
+            int failed = tryEnterAllNow(sorted, held);
+            if (failed < 0) {
+                return true;
+            }
+            long nanos = deadline - clock.nanoTime();
+            if (nanos <= 0 || !regionFor(sorted[failed]).tryEnter(runLength(sorted, failed), nanos)) {
+                return false;
+            }
+            held = failed;
+        } while (true);
+    }
+
+    /**
+     * Enters, without waiting, each run of equal keys of a sorted array but the one starting at held,
+     * already entered, or none of them
+     *
+     * @return start of the run that couldn't be entered, -1 if all were
+     */
+    private int tryEnterAllNow(int[] sorted, int held) {
+        int i = 0;
+        while (i < sorted.length) {
+            int permits = runLength(sorted, i);
+            if (i != held && !regionFor(sorted[i]).tryEnterNow(permits)) {
+                rollback(sorted, i);
+                if (held > i) {
+                    keyToRegion.get(sorted[held]).leave(runLength(sorted, held), false);
+                }
+                return i;
+            }
+            i += permits;
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of keys equal to the one at i of a sorted array, from i on
+     */
+    private static int runLength(int[] sorted, int i) {
+        int permits = 1;
+        while (i + permits < sorted.length && sorted[i + permits] == sorted[i]) {
+            permits++;
+        }
+        return permits;
     }
 
     public void leave(int key) {
-        keyToRegion.get(key).leave();
+        leave(key, 1);
+    }
+
+    /**
+     * @param key
+     * @param permits number of permits taken when entering
+     */
+    public void leave(int key, int permits) {
+        keyToRegion.get(key).leave(permits, true);
+    }
+
+    /**
+     * Leaves every key entered with {@link #tryEnterAll(int[])}.
+     * A repeated key is left with one weighted leave, as it was entered.
+     *
+     * @param keys
+     */
+    public void leaveAll(int[] keys) {
+        int[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        release(sorted, sorted.length, true);
+    }
+
+    /**
+     * Releases the first count keys of a sorted array, without sampling the time inside
+     */
+    private void rollback(int[] sorted, int count) {
+        release(sorted, count, false);
+    }
+
+    /**
+     * Leaves the first count keys of a sorted array, each run of equal keys at once
+     */
+    private void release(int[] sorted, int count, boolean sample) {
+        int i = 0;
+        while (i < count) {
+            int permits = Math.min(runLength(sorted, i), count - i);
+            keyToRegion.get(sorted[i]).leave(permits, sample);
+            i += permits;
+        }
+    }
+
+    /**
+     * @param key
+     * @return counters of the key, all zero if nobody tried to enter it yet
+     */
+    public ThrottledRegionStats getStats(int key) {
+        ThrottledRegionForKey region = keyToRegion.get(key);
+        if (region == null) {
+            return new ThrottledRegionStats(key, 0, 0, 0, 0, 0, getLimit(key), new long[ThrottledRegionStats.HISTOGRAM_BUCKETS]);
+        }
+        return region.getStats(key);
+    }
+
+    /**
+     * @return sum of the counters of all the keys
+     */
+    public ThrottledRegionStats getStats() {
+        List<ThrottledRegionStats> all = new ArrayList<>();
+        keyToRegion.forEach((key, region) -> all.add(region.getStats(key)));
+        return ThrottledRegionStats.aggregate(all);
+    }
+
+    /**
+     * @param k
+     * @return counters of the k keys with more attempts to enter, the hottest first
+     */
+    public List<ThrottledRegionStats> getHottestKeys(int k) {
+        Comparator<ThrottledRegionStats> byAttempts = Comparator.comparingLong(ThrottledRegionStats::getAttempts);
+        PriorityQueue<ThrottledRegionStats> top = new PriorityQueue<>(byAttempts);
+        keyToRegion.forEach((key, region) -> {
+            top.add(region.getStats(key));
+            if (top.size() > k) {
+                top.poll();
+            }
+        });
+        List<ThrottledRegionStats> hottest = new ArrayList<>(top);
+        hottest.sort(Collections.reverseOrder(byAttempts));
+        return hottest;
+    }
+
+    private ThrottledRegionForKey regionFor(int key) {
+        return keyToRegion.computeIfAbsent(key, k -> new ThrottledRegionForKey());
+    }
+
+    /**
+     * @param key
+     * @return the number of threads currently allowed inside the region of the key
+     */
+    public int getLimit(int key) {
+        ThrottledRegionForKey region = keyToRegion.get(key);
+        return region == null ? initialLimit : region.getLimit();
     }
 }
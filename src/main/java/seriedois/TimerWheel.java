@@ -0,0 +1,265 @@
+package seriedois;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import utils.PowerOfTwo;
+import utils.TimeSource;
+
+/**
+ * Hashed timer wheel.
+ *
+ * Deadlines are rounded up to the next tick, and a single thread expires every timeout of a tick
+ * at once, grouped by target, instead of each waiting thread keeping its own timer.
+ * The thread only runs while there are timeouts scheduled: it exits after being idle for a while
+ * and the next schedule starts another, so a wheel that is no longer used holds no thread.
+ */
+public class TimerWheel {
+
+    /**
+     * Receives the timeouts that expired
+     *
+     * @param <A> type of the attachment of the timeouts
+     */
+    public interface Expirable<A> {
+
+        /**
+         * Called from the wheel thread with all the attachments of this target that expired in the same tick
+         *
+         * @param attachments
+         */
+        void expire(List<A> attachments);
+    }
+
+    public static class Timeout {
+
+        private static final int WAITING = 0, CANCELLED = 1, EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final Expirable<?> target;
+
+        private final Object attachment;
+
+        private final long deadlineTick;
+
+        private final TimerWheel wheel;
+
+        private volatile int state;
+
+        private Timeout(TimerWheel wheel, Expirable<?> target, Object attachment, long deadlineTick) {
+            this.wheel = wheel;
+            this.target = target;
+            this.attachment = attachment;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * @return false if the timeout already expired
+         */
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, WAITING, CANCELLED)) {
+                wheel.active.decrementAndGet();
+                return true;
+            }
+            return state == CANCELLED;
+        }
+
+        private boolean expire() {
+            if (STATE.compareAndSet(this, WAITING, EXPIRED)) {
+                wheel.active.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Real time the thread waits for new timeouts before exiting
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long tickNanos;
+
+    private final int mask;
+
+    private final long startTime;
+
+    /**
+     * Buckets, only touched by the wheel thread
+     */
+    private final List<List<Timeout>> wheel;
+
+    /**
+     * Timeouts scheduled since the last tick
+     */
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Timeouts neither cancelled nor expired
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * If there is a wheel thread, set by whoever starts it
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Thread worker;
+
+    private final TimeSource clock;
+
+    /**
+     * Last tick processed, only touched by the wheel thread
+     */
+    private long processedTick;
+
+    /**
+     *
+     * @param tickDuration resolution of the timeouts
+     * @param unit
+     * @param wheelSize number of buckets, rounded up to a power of 2
+     */
+    public TimerWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+        this(tickDuration, unit, wheelSize, TimeSource.SYSTEM);
+    }
+
+    /**
+     *
+     * @param tickDuration resolution of the timeouts
+     * @param unit
+     * @param wheelSize number of buckets, rounded up to a power of 2
+     * @param clock source of the time of the ticks
+     */
+    public TimerWheel(long tickDuration, TimeUnit unit, int wheelSize, TimeSource clock) {
+        if (tickDuration <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickDuration and wheelSize must be positive");
+        }
+        int size = PowerOfTwo.ceil(wheelSize);
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.mask = size - 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.clock = clock;
+        this.startTime = clock.nanoTime();
+    }
+
+    /**
+     * @param target receives the attachment when the timeout expires
+     * @param attachment
+     * @param delayNanos
+     * @return the timeout, to be cancelled when no longer needed
+     */
+    public <A> Timeout schedule(Expirable<A> target, A attachment, long delayNanos) {
+        long deadline = clock.nanoTime() - startTime + Math.max(0, delayNanos);
+        Timeout timeout = new Timeout(this, target, attachment, (deadline + tickNanos - 1) / tickNanos);
+        pending.add(timeout);
+        if (active.getAndIncrement() == 0) {
+            if (running.compareAndSet(false, true)) {
+                Thread t = new Thread(this::work, "TimerWheel");
+                t.setDaemon(true);
+                worker = t;
+                t.start();
+            } else {
+                LockSupport.unpark(worker);
+            }
+        }
+        return timeout;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    private long currentTick() {
+        return (clock.nanoTime() - startTime) / tickNanos;
+    }
+
+    private void work() {
+        processedTick = currentTick();
+        do {
+            if (active.get() == 0) {
+                transferPending();  // drop the cancelled ones
+                if (active.get() == 0) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                    if (active.get() == 0 && stop()) {
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            long sleep = startTime + (processedTick + 1) * tickNanos - clock.nanoTime();
+            if (sleep > 0) {
+                clock.parkNanos(this, sleep);
+                continue;
+            }
+
+            transferPending();
+            long now = currentTick();
+            // after being idle there is no need to visit a bucket more than once
+            for (long tick = Math.max(processedTick + 1, now - mask); tick <= now; tick++) {
+                expire(tick);
+            }
+            processedTick = now;
+        } while (true);
+    }
+
+    /**
+     * Every timeout left in the buckets is cancelled or expired, so they are dropped.
+     *
+     * @return false if a timeout was scheduled meanwhile and this thread must keep running
+     */
+    private boolean stop() {
+        for (List<Timeout> bucket : wheel) {
+            bucket.clear();
+        }
+        running.set(false);
+        // a schedule that saw this thread running only unparked it, so it must take the timeout
+        return active.get() == 0 || !running.compareAndSet(false, true);
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.state == Timeout.WAITING) {
+                long tick = Math.max(timeout.deadlineTick, processedTick + 1);
+                wheel.get((int) (tick & mask)).add(timeout);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expire(long tick) {
+        List<Timeout> bucket = wheel.get((int) (tick & mask));
+        if (bucket.isEmpty()) {
+            return;
+        }
+        Map<Expirable<?>, List<Object>> expired = new IdentityHashMap<>();
+        int kept = 0;
+        for (Timeout timeout : bucket) {
+            if (timeout.state != Timeout.WAITING) {
+                continue;
+            }
+            if (timeout.deadlineTick > tick) {  // later round
+                bucket.set(kept++, timeout);
+            } else if (timeout.expire()) {
+                expired.computeIfAbsent(timeout.target, t -> new ArrayList<>()).add(timeout.attachment);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+
+        expired.forEach((target, attachments) -> ((Expirable<Object>) target).expire(attachments));
+    }
+}
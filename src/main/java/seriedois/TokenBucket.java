@@ -0,0 +1,99 @@
+package seriedois;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import utils.TimeSource;
+
+/**
+ * Lock free token bucket.
+ *
+ * The whole state is a single timestamp: the instant in which the bucket was (or will be) empty.
+ * The tokens available at any instant are computed from it, so refilling costs nothing
+ * and there is no thread per bucket.
+ */
+public class TokenBucket {
+
+    private final long nanosPerToken;
+
+    /**
+     * Time needed to fill an empty bucket
+     */
+    private final long capacityNanos;
+
+    private final int burst;
+
+    /**
+     * Instant, in the clock's time, in which the bucket has no tokens
+     */
+    private final AtomicLong emptyAt;
+
+    private final TimeSource clock;
+
+    /**
+     *
+     * @param permitsPerSecond tokens added to the bucket per second
+     * @param burst maximum number of tokens the bucket holds
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, TimeSource.SYSTEM);
+    }
+
+    /**
+     *
+     * @param permitsPerSecond tokens added to the bucket per second
+     * @param burst maximum number of tokens the bucket holds
+     * @param clock source of the time in which the bucket refills
+     */
+    public TokenBucket(double permitsPerSecond, int burst, TimeSource clock) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+        }
+        this.nanosPerToken = Math.max(1, Math.round(1_000_000_000 / permitsPerSecond));
+        this.capacityNanos = burst * nanosPerToken;
+        this.burst = burst;
+        this.clock = clock;
+        this.emptyAt = new AtomicLong(clock.nanoTime() - capacityNanos);   // starts full
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @param tokens
+     * @return true if the tokens were taken from the bucket
+     */
+    public boolean tryAcquire(int tokens) {
+        long cost = tokens * nanosPerToken;
+        do {
+            long now = clock.nanoTime();
+            long observed = emptyAt.get();
+            long base = start(observed, now);
+            if (now - base < cost) {
+                return false;
+            }
+            if (emptyAt.compareAndSet(observed, base + cost)) {
+                return true;
+            }
+        } while (true);
+    }
+
+    /**
+     * @param tokens
+     * @return nanoseconds until the bucket holds the tokens, 0 if it already does
+     */
+    public long nanosUntilAvailable(int tokens) {
+        long now = clock.nanoTime();
+        long base = start(emptyAt.get(), now);
+        return Math.max(0, base + tokens * nanosPerToken - now);
+    }
+
+    /**
+     * A bucket can't hold more than burst tokens, so the empty instant is never older
+     * than the time needed to fill it.
+     */
+    private long start(long observed, long now) {
+        long full = now - capacityNanos;
+        return observed - full > 0 ? observed : full;
+    }
+}
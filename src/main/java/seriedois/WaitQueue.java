@@ -0,0 +1,166 @@
+package seriedois;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Threads blocked on a lock free structure until an operation succeeds.
+ *
+ * A thread spins for a while and then registers itself and parks. Whoever makes the
+ * operation possible calls {@link #signal()}, which costs a single volatile read when
+ * nobody is registered and unparks exactly one thread otherwise.
+ *
+ * A thread registers before its last try and a signaller reads the count after its change,
+ * so either the thread sees the change or the signaller sees the thread. That needs the change
+ * to be a volatile write or a CAS; structures that publish with lazySet must give a maxPark
+ * so a missed signal only costs one slice.
+ */
+class WaitQueue {
+
+    /**
+     * Tries before parking, none on a single processor where spinning only delays the thread we wait for
+     */
+    static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+    private static class Waiter {
+
+        static final int WAITING = 0, SIGNALLED = 1, CANCELLED = 2;
+
+        static final AtomicIntegerFieldUpdater<Waiter> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Waiter.class, "state");
+
+        final Thread thread;
+
+        volatile int state;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Waiters neither signalled nor cancelled
+     */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Longest a thread stays parked before trying again, 0 for no limit
+     */
+    private final long maxParkNanos;
+
+    WaitQueue() {
+        this(0);
+    }
+
+    /**
+     * @param maxParkNanos longest a thread stays parked before trying again, 0 for no limit
+     */
+    WaitQueue(long maxParkNanos) {
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    /**
+     * @return true if some thread is registered
+     */
+    boolean hasWaiters() {
+        return count.get() > 0;
+    }
+
+    /**
+     * @return number of registered threads
+     */
+    int getWaiterCount() {
+        return count.get();
+    }
+
+    /**
+     * Wakes up one registered thread, if any
+     */
+    void signal() {
+        while (count.get() > 0) {
+            Waiter waiter = waiters.poll();
+            if (waiter == null) {
+                return;     // another signaller took it
+            }
+            if (Waiter.STATE.compareAndSet(waiter, Waiter.WAITING, Waiter.SIGNALLED)) {
+                count.decrementAndGet();
+                LockSupport.unpark(waiter.thread);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Calls tryGet until it returns something.
+     *
+     * @param tryGet operation to retry, must only return null when it really can't succeed
+     * @param timed
+     * @param nanos maximum time to wait, when timed
+     * @return the result of tryGet, null if the time expired
+     */
+    <T> T await(Supplier<T> tryGet, boolean timed, long nanos) throws InterruptedException {
+        T v;
+        for (int i = 0; i < SPINS; i++) {
+            if ((v = tryGet.get()) != null) {
+                return v;
+            }
+        }
+
+        long deadline = timed ? System.nanoTime() + nanos : 0;
+        do {
+            Waiter waiter = new Waiter(Thread.currentThread());
+            waiters.add(waiter);
+            count.incrementAndGet();
+
+            v = tryGet.get();
+            if (v == null && !Thread.currentThread().isInterrupted()) {
+                if (!timed) {
+                    if (maxParkNanos == 0) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, maxParkNanos);
+                    }
+                } else if ((nanos = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, maxParkNanos == 0 ? nanos : Math.min(nanos, maxParkNanos));
+                }
+            }
+
+            boolean signalled = !cancel(waiter);
+            boolean interrupted = Thread.interrupted();
+            boolean expired = timed && deadline - System.nanoTime() <= 0;
+
+            if (v != null || interrupted || expired) {
+                if (signalled) {
+                    signal();   // the signal was meant for a thread that will consume, pass it on
+                }
+                if (v != null) {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();     // keep the datum and the interrupt
+                    }
+                    return v;
+                }
+                if (interrupted) {
+                    throw new InterruptedException();
+                }
+                return tryGet.get();
+            }
+        } while (true);
+    }
+
+    /**
+     * @return false if the waiter was already signalled
+     */
+    private boolean cancel(Waiter waiter) {
+        if (Waiter.STATE.compareAndSet(waiter, Waiter.WAITING, Waiter.CANCELLED)) {
+            count.decrementAndGet();
+            waiters.remove(waiter);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,137 @@
+package seriedois;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import utils.PowerOfTwo;
+
+/*
+ * Top, the index thieves CAS, on its own cache line, away from bottom and the array,
+ * which the owner writes, see CacheLinePad
+ */
+
+abstract class WorkStealingDequeTop extends CacheLinePad {
+    static final AtomicLongFieldUpdater<WorkStealingDequeTop> TOP =
+            AtomicLongFieldUpdater.newUpdater(WorkStealingDequeTop.class, "top");
+
+    volatile long top;
+}
+
+abstract class WorkStealingDequePad1 extends WorkStealingDequeTop {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+/*
+ * Lock-free work-stealing deque (Chase and Lev, 2005)
+ *
+ * The owner pushes and pops at the bottom and thieves steal from the top, over a circular
+ * array that the owner replaces by one twice as big when it is full. Only the owner writes
+ * bottom, so push needs no CAS, and pop only needs one when it takes the last element, which
+ * a thief may be stealing at the same time: both then CAS top and exactly one wins.
+ *
+ * Only one thread, the owner, may push and pop. Any thread may steal.
+ */
+
+public class WorkStealingDeque_<T> extends WorkStealingDequePad1 {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // written by the owner only
+    private volatile long bottom;
+
+    // replaced by the owner when it grows, thieves read it after top and bottom
+    private volatile AtomicReferenceArray<T> array;
+
+    public WorkStealingDeque_() {
+        this(MIN_CAPACITY);
+    }
+
+    // capacity is rounded up to a power of 2, it only sets the initial size
+    public WorkStealingDeque_(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = PowerOfTwo.ceil(capacity);
+        array = new AtomicReferenceArray<>(size);
+    }
+
+    // push an element at the bottom - only the owner
+    public void push(T v) {
+        if (v == null) {
+            throw new NullPointerException();
+        }
+        long b = bottom;
+        long t = top;
+        AtomicReferenceArray<T> a = array;
+        if (b - t >= a.length()) {
+            a = grow(a, t, b);
+        }
+        a.lazySet((int) b & (a.length() - 1), v);
+        bottom = b + 1;     // publish the element
+    }
+
+    // copy the live elements into an array twice as big, at the same indices
+    private AtomicReferenceArray<T> grow(AtomicReferenceArray<T> old, long t, long b) {
+        AtomicReferenceArray<T> a = new AtomicReferenceArray<>(old.length() << 1);
+        for (long i = t; i < b; i++) {
+            a.lazySet((int) i & (a.length() - 1), old.get((int) i & (old.length() - 1)));
+        }
+        array = a;
+        return a;
+    }
+
+    // pop the element at the bottom - only the owner, returns null if the deque is empty
+    public T pop() {
+        long b = bottom - 1;
+        AtomicReferenceArray<T> a = array;
+        // a volatile write followed by the volatile read of top: the StoreLoad barrier that keeps
+        // a thief from taking the element the owner is about to take
+        bottom = b;
+        long t = top;
+        if (t > b) {    // empty
+            bottom = b + 1;
+            return null;
+        }
+        int index = (int) b & (a.length() - 1);
+        T v = a.get(index);
+        if (t < b) {    // more than one element, no thief can reach this one
+            a.lazySet(index, null);
+            return v;
+        }
+        // the last element, race the thieves for it
+        if (!TOP.compareAndSet(this, t, t + 1)) {
+            v = null;   // a thief took it
+        } else {
+            a.lazySet(index, null);
+        }
+        bottom = b + 1;
+        return v;
+    }
+
+    // steal the element at the top - any thread, returns null if the deque is empty or the steal
+    // lost a race with the owner or another thief
+    public T steal() {
+        long t = top;
+        long b = bottom;
+        if (t >= b) {
+            return null;
+        }
+        AtomicReferenceArray<T> a = array;
+        T v = a.get((int) t & (a.length() - 1));
+        // the CAS confirms the element read was still the top one
+        if (!TOP.compareAndSet(this, t, t + 1)) {
+            return null;
+        }
+        return v;
+    }
+
+    // approximate number of elements
+    public int size() {
+        long n = bottom - top;
+        return n <= 0 ? 0 : (int) Math.min(n, Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        return bottom <= top;
+    }
+}
@@ -6,7 +6,9 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+
+import utils.LockProfiler;
+import utils.TimeSource;
 
 public class SynchronousThreadPoolExecutor<T> {
 
@@ -67,14 +69,30 @@ public class SynchronousThreadPoolExecutor<T> {
 
     private Condition shutdown;
 
+    /**
+     * Time of the keep alive
+     */
+    private final TimeSource clock;
+
     /**
      *
      * @param maxPoolSize Maximum number of worker threads
      * @param keepAliveTime Maximum time a worker thread can be inactive
      */
     public SynchronousThreadPoolExecutor(int maxPoolSize, int keepAliveTime){
+        this(maxPoolSize, keepAliveTime, TimeSource.SYSTEM);
+    }
+
+    /**
+     *
+     * @param maxPoolSize Maximum number of worker threads
+     * @param keepAliveTime Maximum time a worker thread can be inactive
+     * @param clock Source of the time of the keep alive
+     */
+    public SynchronousThreadPoolExecutor(int maxPoolSize, int keepAliveTime, TimeSource clock){
         this.workingThreads = 0;
-        this.lock = new ReentrantLock();
+        this.clock = clock;
+        this.lock = LockProfiler.newLock("SynchronousThreadPoolExecutor");
         this.waiterCondition = lock.newCondition();
         this.maxPoolSize = maxPoolSize;
         this.threadPool = new HashMap<>();
@@ -155,7 +173,7 @@ public class SynchronousThreadPoolExecutor<T> {
                 }
 
                 try {
-                    nanos = this.waiterCondition.awaitNanos(nanos);
+                    nanos = clock.awaitNanos(lock, this.waiterCondition, nanos);
                 } catch (InterruptedException ex){
                     return;
                 }
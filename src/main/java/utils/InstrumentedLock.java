@@ -0,0 +1,256 @@
+package utils;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ReentrantLock that records how it is used, for {@link LockProfiler}.
+ *
+ * An acquire first tries the lock without waiting. Only when that fails it is counted as contended
+ * and its wait is timed, so the uncontended path costs a counter increment. The time the lock is
+ * held is timed for a sample of the acquires. Locks created with the same name share their counters.
+ */
+public class InstrumentedLock implements Lock {
+
+    /**
+     * One in this many holds is timed
+     */
+    public static final int HOLD_SAMPLE_RATE = 16;
+
+    /**
+     * Counters of the locks of one name
+     */
+    static class Counters {
+        final String name;
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder contended = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAdder[] waitHistogram = newHistogram();
+        final LongAdder[] holdHistogram = newHistogram();
+
+        Counters(String name) {
+            this.name = name;
+        }
+
+        private static LongAdder[] newHistogram() {
+            LongAdder[] histogram = new LongAdder[Log2Histogram.BUCKETS];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+            return histogram;
+        }
+
+        void reset() {
+            acquisitions.reset();
+            contended.reset();
+            waitNanos.reset();
+            for (int i = 0; i < Log2Histogram.BUCKETS; i++) {
+                waitHistogram[i].reset();
+                holdHistogram[i].reset();
+            }
+        }
+
+        LockStats snapshot() {
+            long[] waits = new long[Log2Histogram.BUCKETS];
+            long[] holds = new long[Log2Histogram.BUCKETS];
+            for (int i = 0; i < Log2Histogram.BUCKETS; i++) {
+                waits[i] = waitHistogram[i].sum();
+                holds[i] = holdHistogram[i].sum();
+            }
+            return new LockStats(name, acquisitions.sum(), contended.sum(), waitNanos.sum(), waits, holds);
+        }
+    }
+
+    /**
+     * The lock
+     */
+    private final ReentrantLock _lock;
+
+    private final Counters _counters;
+
+    /**
+     * Start of the current hold if it is sampled, 0 otherwise. Guarded by the lock itself
+     */
+    private long _holdStart;
+
+    /**
+     *
+     * @param name name of the lock, the counters are shared with other locks of the same name
+     */
+    public InstrumentedLock(String name) {
+        this(name, false);
+    }
+
+    /**
+     *
+     * @param name name of the lock, the counters are shared with other locks of the same name
+     * @param fair if the lock is fair
+     */
+    public InstrumentedLock(String name, boolean fair) {
+        this._lock = new ReentrantLock(fair);
+        this._counters = LockProfiler.countersOf(name);
+    }
+
+    /**
+     * @return the name of the lock
+     */
+    public String getName() {
+        return _counters.name;
+    }
+
+    @Override
+    public void lock() {
+        if (!_lock.tryLock()) {
+            long start = System.nanoTime();
+            _lock.lock();
+            waited(start);
+        }
+        acquired();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (!_lock.tryLock()) {
+            long start = System.nanoTime();
+            _lock.lockInterruptibly();
+            waited(start);
+        }
+        acquired();
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!_lock.tryLock()) {
+            return false;
+        }
+        acquired();
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (!_lock.tryLock()) {
+            long start = System.nanoTime();
+            if (!_lock.tryLock(time, unit)) {
+                return false;   // not an acquire, so not counted
+            }
+            waited(start);
+        }
+        acquired();
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        if (_lock.getHoldCount() == 1) {
+            released();
+        }
+        _lock.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return new InstrumentedCondition(_lock.newCondition());
+    }
+
+    private void waited(long start) {
+        long nanos = System.nanoTime() - start;
+        _counters.contended.increment();
+        _counters.waitNanos.add(nanos);
+        _counters.waitHistogram[Log2Histogram.bucketOf(nanos)].increment();
+    }
+
+    private void acquired() {
+        _counters.acquisitions.increment();
+        // reentrant acquires belong to the outer hold
+        if (_lock.getHoldCount() == 1 && ThreadLocalRandom.current().nextInt(HOLD_SAMPLE_RATE) == 0) {
+            _holdStart = System.nanoTime();
+        }
+    }
+
+    // called holding the lock, before the last release
+    private void released() {
+        long start = _holdStart;
+        if (start != 0) {
+            _holdStart = 0;
+            _counters.holdHistogram[Log2Histogram.bucketOf(System.nanoTime() - start)].increment();
+        }
+    }
+
+    /**
+     * Await releases the lock, so the hold ends before and a new one starts after
+     */
+    private class InstrumentedCondition implements Condition {
+
+        private final Condition _condition;
+
+        InstrumentedCondition(Condition condition) {
+            this._condition = condition;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            released();
+            try {
+                _condition.await();
+            } finally {
+                acquired();
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            released();
+            try {
+                _condition.awaitUninterruptibly();
+            } finally {
+                acquired();
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            released();
+            try {
+                return _condition.awaitNanos(nanosTimeout);
+            } finally {
+                acquired();
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            released();
+            try {
+                return _condition.await(time, unit);
+            } finally {
+                acquired();
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            released();
+            try {
+                return _condition.awaitUntil(deadline);
+            } finally {
+                acquired();
+            }
+        }
+
+        @Override
+        public void signal() {
+            _condition.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            _condition.signalAll();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Reusable try-with-resources guard of a Lock.
+ *
+ * Unlike {@link LockWrapper} it is built once per lock and shared by every thread, as it keeps
+ * no state of its own: each acquire method returns the guard itself, so a critical section
+ * allocates nothing.
+ *
+ * <pre>
+ * try (LockGuard g = guard.lock()) {
+ *     ...
+ * }
+ *
+ * try (LockGuard g = guard.tryLock(10, TimeUnit.MILLISECONDS)) {
+ *     if (g == null) {
+ *         return false;   // not acquired, close isn't called on null
+ *     }
+ *     ...
+ * }
+ * </pre>
+ */
+public class LockGuard implements AutoCloseable {
+
+    /**
+     * The lock
+     */
+    private final Lock _lock;
+
+    /**
+     *
+     * @param l the lock
+     */
+    public LockGuard(Lock l) {
+        this._lock = l;
+    }
+
+    /**
+     * @return the guarded lock
+     */
+    public Lock getLock() {
+        return _lock;
+    }
+
+    /**
+     * @return this guard, with the lock acquired
+     */
+    public LockGuard lock() {
+        _lock.lock();
+        return this;
+    }
+
+    /**
+     * @return this guard, with the lock acquired
+     */
+    public LockGuard lockInterruptibly() throws InterruptedException {
+        _lock.lockInterruptibly();
+        return this;
+    }
+
+    /**
+     * @return this guard if the lock was free, null otherwise
+     */
+    public LockGuard tryLock() {
+        return _lock.tryLock() ? this : null;
+    }
+
+    /**
+     * @param timeout maximum time to wait for the lock
+     * @param unit
+     * @return this guard if the lock was acquired in time, null otherwise
+     */
+    public LockGuard tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        return _lock.tryLock(timeout, unit) ? this : null;
+    }
+
+    @Override
+    public void close() {
+        _lock.unlock();
+    }
+}
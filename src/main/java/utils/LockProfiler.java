@@ -0,0 +1,109 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Creates named locks and reports their contention.
+ *
+ * Profiling is off by default and {@link #newLock(String)} returns a plain ReentrantLock. Running
+ * with -Dutils.LockProfiler.enabled=true, or calling {@link #setEnabled(boolean)} before the locks
+ * are created, makes it return {@link InstrumentedLock}s, usable with {@link LockWrapper} and
+ * {@link LockGuard} like any other lock.
+ *
+ * <pre>
+ * this.lock = LockProfiler.newLock("SynchronousThreadPoolExecutor");
+ * ...
+ * System.out.println(LockProfiler.report(5));
+ * </pre>
+ */
+public final class LockProfiler {
+
+    private static final ConcurrentMap<String, InstrumentedLock.Counters> counters = new ConcurrentHashMap<>();
+
+    private static volatile boolean enabled = Boolean.getBoolean("utils.LockProfiler.enabled");
+
+    private LockProfiler() {
+    }
+
+    /**
+     * @return if new locks are instrumented
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Locks already created keep what they are.
+     *
+     * @param e if new locks are instrumented
+     */
+    public static void setEnabled(boolean e) {
+        enabled = e;
+    }
+
+    /**
+     *
+     * @param name name of the lock, locks of the same name are reported together
+     * @return an InstrumentedLock if profiling is enabled, a ReentrantLock otherwise
+     */
+    public static Lock newLock(String name) {
+        return enabled ? new InstrumentedLock(name) : new ReentrantLock();
+    }
+
+    static InstrumentedLock.Counters countersOf(String name) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        return counters.computeIfAbsent(name, InstrumentedLock.Counters::new);
+    }
+
+    /**
+     * @return the counters of the locks with the name, null if no lock was instrumented with it
+     */
+    public static LockStats getStats(String name) {
+        InstrumentedLock.Counters c = counters.get(name);
+        return c == null ? null : c.snapshot();
+    }
+
+    /**
+     * @param n maximum number of locks returned
+     * @return the counters of the n locks that waited the longest in total, the longest first
+     */
+    public static List<LockStats> getMostContended(int n) {
+        List<LockStats> stats = new ArrayList<>();
+        for (InstrumentedLock.Counters c : counters.values()) {
+            stats.add(c.snapshot());
+        }
+        stats.sort(Comparator.comparingLong(LockStats::getWaitNanos)
+                .thenComparingLong(LockStats::getContended)
+                .reversed());
+        return stats.size() > n ? new ArrayList<>(stats.subList(0, n)) : stats;
+    }
+
+    /**
+     * @param n maximum number of locks reported
+     * @return one line per lock of {@link #getMostContended(int)}
+     */
+    public static String report(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (LockStats s : getMostContended(n)) {
+            sb.append(s).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Zeroes the counters of every name. Acquires that happen meanwhile may be partly counted.
+     */
+    public static void reset() {
+        for (InstrumentedLock.Counters c : counters.values()) {
+            c.reset();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters of the locks of one name, see {@link LockProfiler}, as they were when read.
+ * Threads go on locking while they are read, so they may not add up exactly.
+ */
+public class LockStats {
+
+    /**
+     * Number of buckets of the histograms, see {@link Log2Histogram}
+     */
+    public static final int HISTOGRAM_BUCKETS = Log2Histogram.BUCKETS;
+
+    private final String name;
+
+    private final long acquisitions;
+
+    private final long contended;
+
+    private final long waitNanos;
+
+    private final long[] waitHistogram;
+
+    private final long[] holdHistogram;
+
+    LockStats(String name, long acquisitions, long contended, long waitNanos, long[] waitHistogram, long[] holdHistogram) {
+        this.name = name;
+        this.acquisitions = acquisitions;
+        this.contended = contended;
+        this.waitNanos = waitNanos;
+        this.waitHistogram = waitHistogram;
+        this.holdHistogram = holdHistogram;
+    }
+
+    /**
+     * @return name of the locks
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of successful acquires
+     */
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * @return number of acquires that found the lock taken and had to wait
+     */
+    public long getContended() {
+        return contended;
+    }
+
+    /**
+     * @return total time waited by the contended acquires, in nanoseconds
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * Only contended acquires are counted, the others didn't wait.
+     *
+     * @return copy of the wait time histogram, see {@link #HISTOGRAM_BUCKETS}
+     */
+    public long[] getWaitHistogram() {
+        return waitHistogram.clone();
+    }
+
+    /**
+     * Only a sample of the holds is counted, see {@link InstrumentedLock#HOLD_SAMPLE_RATE}.
+     *
+     * @return copy of the hold time histogram, see {@link #HISTOGRAM_BUCKETS}
+     */
+    public long[] getHoldHistogram() {
+        return holdHistogram.clone();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound, in microseconds, of the wait time of the given percentile of the contended acquires
+     */
+    public long getWaitPercentile(double percentile) {
+        return Log2Histogram.percentile(waitHistogram, percentile);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound, in microseconds, of the hold time of the given percentile of the sampled holds
+     */
+    public long getHoldPercentile(double percentile) {
+        return Log2Histogram.percentile(holdHistogram, percentile);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: acquisitions=%d, contended=%d, waited=%dus, wait p50=%dus p99=%dus, hold p50=%dus p99=%dus",
+                name, acquisitions, contended, TimeUnit.NANOSECONDS.toMicros(waitNanos),
+                getWaitPercentile(50), getWaitPercentile(99), getHoldPercentile(50), getHoldPercentile(99));
+    }
+}
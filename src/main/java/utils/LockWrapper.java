@@ -22,7 +22,7 @@ public class LockWrapper implements AutoCloseable {
     }
 
     @Override
-    public void close() throws Exception {
+    public void close() {
         this._lock.unlock();
     }
 }
@@ -0,0 +1,54 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Histogram of times with power of 2 buckets, kept as a plain array of counts so each owner
+ * chooses how to count (under a lock, with LongAdders, ...).
+ *
+ * Bucket i counts the times that took less than 2^i microseconds and at least half that,
+ * the last one counts everything above.
+ */
+public final class Log2Histogram {
+
+    /**
+     * Number of buckets
+     */
+    public static final int BUCKETS = 32;
+
+    private Log2Histogram() {
+    }
+
+    /**
+     * @param nanos
+     * @return the bucket of the time
+     */
+    public static int bucketOf(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @param histogram counts of each bucket
+     * @param percentile between 0 and 100
+     * @return upper bound, in microseconds, of the times of the given percentile, 0 if the histogram is empty
+     */
+    public static long percentile(long[] histogram, double percentile) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= target && seen > 0) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,21 @@
+package utils;
+
+/**
+ * Sizes of the arrays indexed with a mask instead of a modulo
+ */
+public final class PowerOfTwo {
+
+    private PowerOfTwo() {
+    }
+
+    /**
+     * @param n between 1 and 2^30
+     * @return the smallest power of 2 not less than n
+     */
+    public static int ceil(int n) {
+        if (n < 1 || n > 1 << 30) {
+            throw new IllegalArgumentException("n must be between 1 and 2^30");
+        }
+        return n == 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+}
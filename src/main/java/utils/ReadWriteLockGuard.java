@@ -0,0 +1,73 @@
+package utils;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Reusable try-with-resources guards of the read and write locks of a ReadWriteLock.
+ *
+ * <pre>
+ * try (LockGuard g = guard.read()) {
+ *     ...
+ * }
+ * </pre>
+ */
+public class ReadWriteLockGuard {
+
+    /**
+     * The read and write lock
+     */
+    private final ReadWriteLock _lock;
+
+    private final LockGuard _read;
+    private final LockGuard _write;
+
+    public ReadWriteLockGuard() {
+        this(new ReentrantReadWriteLock());
+    }
+
+    /**
+     *
+     * @param l the read and write lock
+     */
+    public ReadWriteLockGuard(ReadWriteLock l) {
+        this._lock = l;
+        this._read = new LockGuard(l.readLock());
+        this._write = new LockGuard(l.writeLock());
+    }
+
+    /**
+     * @return the guarded lock
+     */
+    public ReadWriteLock getLock() {
+        return _lock;
+    }
+
+    /**
+     * @return the guard of the read lock, with the lock acquired
+     */
+    public LockGuard read() {
+        return _read.lock();
+    }
+
+    /**
+     * @return the guard of the write lock, with the lock acquired
+     */
+    public LockGuard write() {
+        return _write.lock();
+    }
+
+    /**
+     * @return the guard of the read lock, to acquire it some other way
+     */
+    public LockGuard readGuard() {
+        return _read;
+    }
+
+    /**
+     * @return the guard of the write lock, to acquire it some other way
+     */
+    public LockGuard writeGuard() {
+        return _write;
+    }
+}
@@ -0,0 +1,160 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Try-with-resources guards of a StampedLock, and optimistic reads.
+ *
+ * A StampedLock is released with the stamp its acquire returned, so each thread gets its own
+ * guard, kept in a ThreadLocal and reused. StampedLock isn't reentrant: a thread can't take a
+ * second guard of the same lock before closing the first.
+ *
+ * <pre>
+ * long x = guard.optimisticRead(() -> this.x);
+ *
+ * try (StampedLockGuard.Guard g = guard.write()) {
+ *     this.x++;
+ * }
+ * </pre>
+ */
+public class StampedLockGuard {
+
+    /**
+     * A thread's guard, holding the stamp of its current acquire
+     */
+    public final class Guard implements AutoCloseable {
+
+        private long _stamp;
+
+        // checked before blocking, a thread that already holds the lock would wait forever
+        private Guard free() {
+            if (_stamp != 0) {
+                throw new IllegalStateException("a StampedLock isn't reentrant");
+            }
+            return this;
+        }
+
+        private Guard acquired(long stamp) {
+            _stamp = stamp;
+            return this;
+        }
+
+        /**
+         * @return the stamp of the acquire
+         */
+        public long getStamp() {
+            return _stamp;
+        }
+
+        @Override
+        public void close() {
+            long stamp = _stamp;
+            _stamp = 0;
+            _lock.unlock(stamp);
+        }
+    }
+
+    /**
+     * The lock
+     */
+    private final StampedLock _lock;
+
+    private final ThreadLocal<Guard> _guards = ThreadLocal.withInitial(Guard::new);
+
+    public StampedLockGuard() {
+        this(new StampedLock());
+    }
+
+    /**
+     *
+     * @param l the lock
+     */
+    public StampedLockGuard(StampedLock l) {
+        this._lock = l;
+    }
+
+    /**
+     * @return the guarded lock
+     */
+    public StampedLock getLock() {
+        return _lock;
+    }
+
+    /**
+     * @return the thread's guard, with the read lock acquired
+     */
+    public Guard read() {
+        Guard guard = _guards.get().free();
+        return guard.acquired(_lock.readLock());
+    }
+
+    /**
+     * @return the thread's guard, with the write lock acquired
+     */
+    public Guard write() {
+        Guard guard = _guards.get().free();
+        return guard.acquired(_lock.writeLock());
+    }
+
+    /**
+     * @return the thread's guard if the read lock was acquired in time, null otherwise
+     */
+    public Guard tryRead(long timeout, TimeUnit unit) throws InterruptedException {
+        Guard guard = _guards.get().free();
+        long stamp = _lock.tryReadLock(timeout, unit);
+        return stamp == 0 ? null : guard.acquired(stamp);
+    }
+
+    /**
+     * @return the thread's guard if the write lock was acquired in time, null otherwise
+     */
+    public Guard tryWrite(long timeout, TimeUnit unit) throws InterruptedException {
+        Guard guard = _guards.get().free();
+        long stamp = _lock.tryWriteLock(timeout, unit);
+        return stamp == 0 ? null : guard.acquired(stamp);
+    }
+
+    /**
+     * Reads without locking and, if a writer got in meanwhile, reads again holding the read lock.
+     *
+     * @param reader reads the shared state, it may see it inconsistent and must not act on it
+     * @return what the reader read from a consistent state
+     */
+    public <R> R optimisticRead(Supplier<R> reader) {
+        long stamp = _lock.tryOptimisticRead();
+        if (stamp != 0) {
+            R r = reader.get();
+            if (_lock.validate(stamp)) {
+                return r;
+            }
+        }
+        stamp = _lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            _lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * {@link #optimisticRead(Supplier)} of a long, without boxing.
+     */
+    public long optimisticReadLong(LongSupplier reader) {
+        long stamp = _lock.tryOptimisticRead();
+        if (stamp != 0) {
+            long r = reader.getAsLong();
+            if (_lock.validate(stamp)) {
+                return r;
+            }
+        }
+        stamp = _lock.readLock();
+        try {
+            return reader.getAsLong();
+        } finally {
+            _lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package utils;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks that keys are mapped to, so critical sections of different keys
+ * mostly don't contend while the number of locks stays bounded.
+ *
+ * <pre>
+ * try (LockGuard g = stripes.lock(key)) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * The contended state of each stripe is inside its ReentrantLock, which can't be padded from
+ * outside, so neighbouring stripes may share a cache line.
+ *
+ * Two keys may share a stripe. A thread that holds several stripes at once must take them in
+ * index order, see {@link #indexOf(Object)}, or it may deadlock with another.
+ */
+public class StripedLock {
+
+    private final LockGuard[] _guards;
+
+    private final int _mask;
+
+    /**
+     *
+     * @param stripes number of locks, rounded up to a power of 2
+     */
+    public StripedLock(int stripes) {
+        this(stripes, false);
+    }
+
+    /**
+     *
+     * @param stripes number of locks, rounded up to a power of 2
+     * @param fair if the locks are fair
+     */
+    public StripedLock(int stripes, boolean fair) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be positive");
+        }
+        int size = PowerOfTwo.ceil(stripes);
+        _guards = new LockGuard[size];
+        for (int i = 0; i < size; i++) {
+            _guards[i] = new LockGuard(new ReentrantLock(fair));
+        }
+        _mask = size - 1;
+    }
+
+    /**
+     * @return the number of locks
+     */
+    public int size() {
+        return _guards.length;
+    }
+
+    /**
+     * @return the index of the stripe of the key
+     */
+    public int indexOf(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);    // spread the high bits, as HashMap does
+        return h & _mask;
+    }
+
+    /**
+     * @return the lock of the key
+     */
+    public Lock getLock(Object key) {
+        return _guards[indexOf(key)].getLock();
+    }
+
+    /**
+     * @return the reusable guard of the key's lock
+     */
+    public LockGuard guard(Object key) {
+        return _guards[indexOf(key)];
+    }
+
+    /**
+     * @return the guard of the key's lock, with the lock acquired
+     */
+    public LockGuard lock(Object key) {
+        return _guards[indexOf(key)].lock();
+    }
+
+    /**
+     * @return the guard of the lock at index, with the lock acquired
+     */
+    public LockGuard lockAt(int index) {
+        return _guards[index].lock();
+    }
+}
@@ -0,0 +1,59 @@
+package utils;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Clock and timed waits of the classes with timeouts, so tests and simulations can replace
+ * real time with a {@link VirtualTimeSource}.
+ *
+ * Timed waits may return early, as Condition.awaitNanos may, so callers wait in a loop
+ * and check again their condition and the time left.
+ */
+public interface TimeSource {
+
+    /**
+     * System.nanoTime and the usual waits
+     */
+    TimeSource SYSTEM = new TimeSource() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long awaitNanos(Lock lock, Condition condition, long nanos) throws InterruptedException {
+            return condition.awaitNanos(nanos);
+        }
+
+        @Override
+        public void parkNanos(Object blocker, long nanos) {
+            LockSupport.parkNanos(blocker, nanos);
+        }
+    };
+
+    /**
+     * @return the current instant, in nanoseconds from an arbitrary origin
+     */
+    long nanoTime();
+
+    /**
+     * Waits on the condition, as {@link Condition#awaitNanos(long)}
+     *
+     * @param lock the lock of the condition, held by the calling thread
+     * @param condition
+     * @param nanos maximum time to wait
+     * @return estimate of the time left, 0 or less if it elapsed
+     */
+    long awaitNanos(Lock lock, Condition condition, long nanos) throws InterruptedException;
+
+    /**
+     * Parks the calling thread, as {@link LockSupport#parkNanos(Object, long)}.
+     * LockSupport.unpark wakes it up.
+     *
+     * @param blocker
+     * @param nanos maximum time to park
+     */
+    void parkNanos(Object blocker, long nanos);
+}
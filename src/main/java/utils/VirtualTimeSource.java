@@ -0,0 +1,137 @@
+package utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Clock that only moves when {@link #advance(long, TimeUnit)} is called.
+ *
+ * Threads in a timed wait sleep until the clock is advanced past their deadline, however long
+ * that is in real time, so timeouts are deterministic and hours of them can be replayed in
+ * milliseconds. Threads that wait without a timeout, or are signalled, behave as usual.
+ */
+public class VirtualTimeSource implements TimeSource {
+
+    /**
+     * A thread in a timed wait
+     */
+    private static final class Sleeper {
+        final long deadline;
+        final Runnable wake;
+
+        Sleeper(long deadline, Runnable wake) {
+            this.deadline = deadline;
+            this.wake = wake;
+        }
+    }
+
+    private volatile long _now;
+
+    private final ConcurrentHashMap<Sleeper, Boolean> _sleepers = new ConcurrentHashMap<>();
+
+    public VirtualTimeSource() {
+        this(0);
+    }
+
+    /**
+     *
+     * @param start the initial instant, in nanoseconds
+     */
+    public VirtualTimeSource(long start) {
+        this._now = start;
+    }
+
+    @Override
+    public long nanoTime() {
+        return _now;
+    }
+
+    /**
+     * Moves the clock forward and wakes up the threads whose wait elapsed.
+     * Must not be called holding the lock of a waiting thread.
+     *
+     * @param time
+     * @param unit
+     */
+    public void advance(long time, TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException("time can't go back");
+        }
+        long now;
+        synchronized (this) {   // concurrent advances add up
+            now = _now + unit.toNanos(time);
+            _now = now;
+        }
+        for (Sleeper s : _sleepers.keySet()) {
+            if (s.deadline - now <= 0 && _sleepers.remove(s) != null) {
+                s.wake.run();
+            }
+        }
+    }
+
+    /**
+     * @return number of threads in a timed wait
+     */
+    public int getSleeping() {
+        return _sleepers.size();
+    }
+
+    /**
+     * Spins until at least count threads are in a timed wait, so the clock can be advanced
+     * knowing they will see it
+     *
+     * @param count
+     */
+    public void awaitSleeping(int count) {
+        while (_sleepers.size() < count) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public long awaitNanos(Lock lock, Condition condition, long nanos) throws InterruptedException {
+        long deadline = _now + nanos;
+        if (nanos <= 0) {
+            return nanos;
+        }
+        // advance needs the lock to signal, and can't get it until this thread awaits
+        Sleeper s = new Sleeper(deadline, () -> {
+            lock.lock();
+            try {
+                condition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        });
+        _sleepers.put(s, Boolean.TRUE);
+        try {
+            if (deadline - _now > 0) {
+                condition.await();
+            }
+        } finally {
+            _sleepers.remove(s);
+        }
+        return deadline - _now;
+    }
+
+    @Override
+    public void parkNanos(Object blocker, long nanos) {
+        long deadline = _now + nanos;
+        if (nanos <= 0) {
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        Sleeper s = new Sleeper(deadline, () -> LockSupport.unpark(thread));
+        _sleepers.put(s, Boolean.TRUE);
+        try {
+            if (deadline - _now > 0) {
+                LockSupport.park(blocker);
+            }
+        } finally {
+            _sleepers.remove(s);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package seriedois;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BoundedConcurrentQueueTests {
+
+    public BoundedConcurrentQueue_<Integer> queue;
+    public Queue<Exception> exceptionQueue;
+
+    @Before
+    public void setUp() {
+        queue = new BoundedConcurrentQueue_<>(4);
+        exceptionQueue = new LinkedList<>();
+    }
+
+    @Test
+    public void CapacityIsRoundedToPowerOfTwoTest() {
+        assertEquals(4, queue.capacity());
+        assertEquals(8, new BoundedConcurrentQueue_<Integer>(5).capacity());
+        assertEquals(1, new BoundedConcurrentQueue_<Integer>(1).capacity());
+    }
+
+    @Test
+    public void FullQueueRejectsAndKeepsOrderTest() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.tryEnqueue(i));
+        }
+        assertFalse(queue.tryEnqueue(4));
+        assertFalse(queue.offer(4, 50, TimeUnit.MILLISECONDS));
+
+        for (int lap = 0; lap < 3; lap++) {     // wrap around the array
+            assertEquals(lap, (int) queue.tryDequeue());
+            assertTrue(queue.tryEnqueue(lap + 4));
+        }
+        for (int i = 3; i < 7; i++) {
+            assertEquals(i, (int) queue.tryDequeue());
+        }
+        assertNull(queue.tryDequeue());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void BlockedProducerIsWokenByDequeueTest() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            queue.enqueue(i);
+        }
+        Thread producer = new Thread(() -> {
+            try {
+                queue.enqueue(4);
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        producer.start();
+        Thread.sleep(100);
+        assertTrue(producer.isAlive());
+
+        assertEquals(0, (int) queue.dequeue());
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void EveryItemIsConsumedOnceTest() throws Exception {
+        final int ITEMS = 20000;
+        int[] counts = ProducerConsumerFixture.run(2, ITEMS, 2,
+                ProducerConsumerFixture.each(queue::enqueue),
+                ProducerConsumerFixture.untilNull(() -> queue.poll(200, TimeUnit.MILLISECONDS)));
+
+        ProducerConsumerFixture.assertEachOnce(counts);
+    }
+}
@@ -0,0 +1,246 @@
+package seriedois;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentQueueTests {
+
+    public ConcurrentQueue_<Integer> queue;
+    public Queue<Exception> exceptionQueue;
+
+    @Before
+    public void setUp() {
+        queue = new ConcurrentQueue_<>();
+        exceptionQueue = new LinkedList<>();
+    }
+
+    @Test
+    public void PollTimesOutOnEmptyQueueTest() throws Exception {
+        long past = System.currentTimeMillis();
+        assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+        long now = System.currentTimeMillis();
+
+        assertTrue((now - past) >= 100);
+    }
+
+    @Test
+    public void ParkedConsumerIsWokenByEnqueueTest() throws Exception {
+        final Integer[] received = new Integer[1];
+        Thread consumer = new Thread(() -> {
+            try {
+                received[0] = queue.dequeue();
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        consumer.start();
+        Thread.sleep(100);
+
+        assertEquals(Thread.State.WAITING, consumer.getState());   // parked, not spinning
+        queue.enqueue(42);
+        consumer.join(1000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals(42, (int) received[0]);
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void InterruptedConsumerThrowsTest() throws Exception {
+        Thread consumer = new Thread(() -> {
+            try {
+                queue.dequeue();
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        consumer.interrupt();
+        consumer.join();
+
+        assertEquals(1, exceptionQueue.size());
+    }
+
+    @Test
+    public void ConsumerInterruptedWhileReceivingKeepsTheInterruptTest() throws Exception {
+        final int ROUNDS = 2000;
+        final int[] lost = new int[1];
+        for (int i = 0; i < ROUNDS; i++) {
+            CountDownLatch interrupted = new CountDownLatch(1);
+            Thread consumer = new Thread(() -> {
+                try {
+                    queue.dequeue();
+                } catch (InterruptedException e) {
+                    return;     // the datum stays in the queue
+                }
+                try {
+                    interrupted.await();
+                    lost[0]++;  // got the datum and forgot the interrupt
+                } catch (InterruptedException e) {
+                    // kept
+                }
+            });
+            consumer.start();
+            queue.enqueue(i);
+            consumer.interrupt();
+            interrupted.countDown();
+            consumer.join();
+            queue.tryDequeue();
+        }
+
+        assertEquals(0, lost[0]);
+    }
+
+    @Test
+    public void EveryItemIsConsumedOnceTest() throws Exception {
+        final int ITEMS = 20000;
+        int[] counts = ProducerConsumerFixture.run(1, ITEMS, 4,
+                ProducerConsumerFixture.each(queue::enqueue),
+                ProducerConsumerFixture.untilNull(() -> queue.poll(200, TimeUnit.MILLISECONDS)));
+
+        ProducerConsumerFixture.assertEachOnce(counts);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void TryDequeueOnlyFailsWhenEmptyTest() throws Exception {
+        final int ITEMS = 100000;
+        for (int i = 0; i < ITEMS; i++) {
+            queue.enqueue(i);
+        }
+
+        final int[] consumed = new int[4];
+        Thread[] consumers = new Thread[consumed.length];
+        for (int i = 0; i < consumers.length; i++) {
+            int id = i;
+            consumers[i] = new Thread(() -> {
+                while (queue.tryDequeue() != null) {
+                    consumed[id]++;
+                }
+            });
+            consumers[i].start();
+        }
+        int total = 0;
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i].join();
+            total += consumed[i];
+        }
+
+        assertEquals(ITEMS, total);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void EnqueueAllAndDrainToKeepOrderTest() throws Exception {
+        queue.enqueue(0);
+        queue.enqueueAll(Arrays.asList(1, 2, 3, 4, 5));
+        queue.enqueue(6);
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, queue.drainTo(drained, 4));
+        assertEquals(Arrays.asList(0, 1, 2, 3), drained);
+        assertEquals(4, (int) queue.tryDequeue());
+        assertEquals(2, queue.drainTo(drained));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 5, 6), drained);
+        assertEquals(0, queue.drainTo(drained));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void ConcurrentBatchesAreNotLostTest() throws Exception {
+        final int BATCHES = 2000;
+        final int BATCH = 10;
+        int[] counts = ProducerConsumerFixture.run(2, BATCHES * BATCH, 2,
+                (first, count) -> {
+                    for (int b = 0; b < count; b += BATCH) {
+                        List<Integer> batch = new ArrayList<>();
+                        for (int i = 0; i < BATCH; i++) {
+                            batch.add(first + b + i);
+                        }
+                        queue.enqueueAll(batch);
+                    }
+                },
+                sink -> {
+                    Integer first = queue.poll(200, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        return false;
+                    }
+                    List<Integer> batch = new ArrayList<>();
+                    batch.add(first);
+                    queue.drainTo(batch, 7);
+                    batch.forEach(sink::accept);
+                    return true;
+                });
+
+        ProducerConsumerFixture.assertEachOnce(counts);
+    }
+
+    @Test
+    public void SizePeekAndIteratorTest() throws Exception {
+        assertEquals(0, queue.size());
+        assertNull(queue.peek());
+        assertFalse(queue.iterator().hasNext());
+
+        queue.enqueue(1);
+        queue.enqueueAll(Arrays.asList(2, 3, 4));
+        assertEquals(4, queue.size());
+        assertEquals(1, (int) queue.peek());
+        assertEquals(4, queue.size());   // peek doesn't remove
+
+        List<Integer> seen = new ArrayList<>();
+        for (Integer v : queue) {
+            seen.add(v);
+        }
+        assertEquals(Arrays.asList(1, 2, 3, 4), seen);
+
+        queue.tryDequeue();
+        queue.drainTo(new ArrayList<>(), 2);
+        assertEquals(1, queue.size());
+        assertEquals(4, (int) queue.peek());
+    }
+
+    @Test
+    public void IteratorToleratesConcurrentDequeueTest() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            queue.enqueue(i);
+        }
+        Iterator<Integer> it = queue.iterator();
+        assertEquals(0, (int) it.next());
+
+        // the nodes the iterator will visit are dequeued under it
+        for (int i = 0; i < 5; i++) {
+            queue.tryDequeue();
+        }
+        queue.enqueue(10);
+
+        int expected = 1;
+        while (it.hasNext()) {
+            assertEquals(expected++, (int) it.next());
+        }
+        assertEquals(11, expected);
+        assertEquals(6, queue.size());
+    }
+
+    @Test
+    public void EliminationKeepsEveryItemAndProducerOrderTest() throws Exception {
+        final ConcurrentQueue_<Integer> queue = new ConcurrentQueue_<>(true);
+        int[] counts = ProducerConsumerFixture.runInOrder(4, 20000, 4,
+                ProducerConsumerFixture.each(queue::enqueue),
+                ProducerConsumerFixture.untilNull(() -> queue.poll(200, TimeUnit.MILLISECONDS)));
+
+        ProducerConsumerFixture.assertEachOnce(counts);
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,241 @@
+package seriedois;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records concurrent histories of an object and checks them against a sequential specification.
+ *
+ * Each operation is stamped from a shared clock when it is invoked and when it returns. A history is
+ * linearizable if its operations can be put in an order that respects those stamps, one operation
+ * before another if it returned before the other was invoked, and in which each operation returns
+ * what the specification says. The search is the one of Wing and Gong, with the states already
+ * explored cached as Lowe does, so it is only practical for short histories: a few threads doing a
+ * few operations, repeated for many rounds.
+ */
+final class Linearizability {
+
+    /**
+     * An operation of a history
+     */
+    static final class Operation {
+        final int thread;
+        final String name;
+        final Object arg;
+        Object result;
+        long invoked;
+        long returned;
+
+        Operation(int thread, String name, Object arg) {
+            this.thread = thread;
+            this.name = name;
+            this.arg = arg;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%d,%d] T%d %s(%s) -> %s", invoked, returned, thread, name,
+                    arg == null ? "" : arg, result);
+        }
+    }
+
+    /**
+     * Sequential behaviour of the object. States must be immutable and implement equals and hashCode.
+     */
+    interface Specification<S> {
+
+        S initial();
+
+        /**
+         * @return the state after the operation, or null if it couldn't return what it did from state
+         */
+        S apply(S state, Operation op);
+    }
+
+    /**
+     * An operation as a thread calls it on the object under test
+     */
+    interface Call<O> {
+        Object call(O object, Object arg) throws Exception;
+    }
+
+    /**
+     * Records the operations of the threads of one round
+     */
+    static final class Recorder<O> {
+
+        private final AtomicLong clock = new AtomicLong();
+
+        private final List<Operation> history = new ArrayList<>();
+
+        private final O object;
+
+        Recorder(O object) {
+            this.object = object;
+        }
+
+        /**
+         * Invokes the operation, stamping it before and after
+         *
+         * @return what it returned
+         */
+        Object invoke(int thread, String name, Object arg, Call<O> call) throws Exception {
+            Operation op = new Operation(thread, name, arg);
+            op.invoked = clock.getAndIncrement();
+            op.result = call.call(object, arg);
+            op.returned = clock.getAndIncrement();
+            synchronized (history) {
+                history.add(op);
+            }
+            return op.result;
+        }
+
+        List<Operation> getHistory() {
+            synchronized (history) {
+                return new ArrayList<>(history);
+            }
+        }
+    }
+
+    /**
+     * What a thread does in a round
+     */
+    interface Script<O> {
+        void run(Recorder<O> recorder, int thread) throws Exception;
+    }
+
+    private Linearizability() {
+    }
+
+    /**
+     * Runs the scripts concurrently on the object, each in its own thread, released together.
+     *
+     * @return the history of the round
+     */
+    @SafeVarargs
+    static <O> List<Operation> record(O object, Script<O>... scripts) throws Exception {
+        Recorder<O> recorder = new Recorder<>(object);
+        CountDownLatch start = new CountDownLatch(1);
+        Exception[] failures = new Exception[scripts.length];
+        Thread[] threads = new Thread[scripts.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    scripts[thread].run(recorder, thread);
+                } catch (Exception e) {
+                    failures[thread] = e;
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (Exception e : failures) {
+            if (e != null) {
+                throw e;
+            }
+        }
+        return recorder.getHistory();
+    }
+
+    /**
+     * @return if the history is linearizable with respect to the specification
+     */
+    static <S> boolean isLinearizable(List<Operation> history, Specification<S> spec) {
+        if (history.size() > 63) {
+            throw new IllegalArgumentException("histories are limited to 63 operations");
+        }
+        return new Search<>(history, spec).linearize(0, spec.initial());
+    }
+
+    /**
+     * @return the history, one operation per line in invocation order
+     */
+    static String toString(List<Operation> history) {
+        List<Operation> sorted = new ArrayList<>(history);
+        sorted.sort((a, b) -> Long.compare(a.invoked, b.invoked));
+        StringBuilder sb = new StringBuilder();
+        for (Operation op : sorted) {
+            sb.append(op).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    private static final class Search<S> {
+
+        private final Operation[] ops;
+
+        private final Specification<S> spec;
+
+        private final long all;
+
+        // configurations from which no linearization was found
+        private final Set<Configuration> dead = new HashSet<>();
+
+        Search(List<Operation> history, Specification<S> spec) {
+            this.ops = history.toArray(new Operation[0]);
+            this.spec = spec;
+            this.all = (1L << ops.length) - 1;
+        }
+
+        boolean linearize(long done, S state) {
+            if (done == all) {
+                return true;
+            }
+            Configuration c = new Configuration(done, state);
+            if (dead.contains(c)) {
+                return false;
+            }
+            // an operation may go next if it was invoked before every pending one returned
+            long firstReturn = Long.MAX_VALUE;
+            for (int i = 0; i < ops.length; i++) {
+                if ((done & (1L << i)) == 0) {
+                    firstReturn = Math.min(firstReturn, ops[i].returned);
+                }
+            }
+            for (int i = 0; i < ops.length; i++) {
+                if ((done & (1L << i)) == 0 && ops[i].invoked < firstReturn) {
+                    S next = spec.apply(state, ops[i]);
+                    if (next != null && linearize(done | (1L << i), next)) {
+                        return true;
+                    }
+                }
+            }
+            dead.add(c);
+            return false;
+        }
+    }
+
+    private static final class Configuration {
+        final long done;
+        final Object state;
+
+        Configuration(long done, Object state) {
+            this.done = done;
+            this.state = state;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Configuration)) {
+                return false;
+            }
+            Configuration other = (Configuration) o;
+            return done == other.done && state.equals(other.state);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(done, state);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package seriedois;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import seriedois.Linearizability.Operation;
+import seriedois.Linearizability.Script;
+import seriedois.Linearizability.Specification;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records many short rounds of concurrent operations and checks each history
+ * for linearizability, see {@link Linearizability}.
+ */
+public class LinearizabilityTests {
+
+    private static final int ROUNDS = 300;
+
+    private static final int THREADS = 3;
+
+    private static final int OPS_PER_THREAD = 4;
+
+    /**
+     * A FIFO queue, whose state is the list of its items
+     */
+    private static final Specification<List<Object>> QUEUE = new Specification<List<Object>>() {
+        @Override
+        public List<Object> initial() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<Object> apply(List<Object> state, Operation op) {
+            switch (op.name) {
+                case "enqueue":
+                    List<Object> next = new ArrayList<>(state);
+                    next.add(op.arg);
+                    return Collections.unmodifiableList(next);
+                case "dequeue":
+                    if (op.result == null) {
+                        return state.isEmpty() ? state : null;
+                    }
+                    return !state.isEmpty() && state.get(0).equals(op.result)
+                            ? Collections.unmodifiableList(state.subList(1, state.size())) : null;
+                case "peek":
+                    return Objects.equals(state.isEmpty() ? null : state.get(0), op.result) ? state : null;
+                case "isEmpty":
+                    return op.result.equals(state.isEmpty()) ? state : null;
+                default:
+                    throw new IllegalArgumentException(op.name);
+            }
+        }
+    };
+
+    /**
+     * The region of one key with room for max threads, whose state is the number of threads inside
+     */
+    private static Specification<Integer> region(int max) {
+        return new Specification<Integer>() {
+            @Override
+            public Integer initial() {
+                return 0;
+            }
+
+            @Override
+            public Integer apply(Integer inside, Operation op) {
+                switch (op.name) {
+                    case "tryEnter":
+                        if ((Boolean) op.result) {
+                            return inside < max ? inside + 1 : null;
+                        }
+                        return inside == max ? inside : null;
+                    case "leave":
+                        return inside > 0 ? inside - 1 : null;
+                    default:
+                        throw new IllegalArgumentException(op.name);
+                }
+            }
+        };
+    }
+
+    private static <O, S> void check(Specification<S> spec, Supplier<O> factory,
+                                     Script<O> script) throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            Script<O>[] scripts = newScripts(script);
+            List<Operation> history = Linearizability.record(factory.get(), scripts);
+            if (!Linearizability.isLinearizable(history, spec)) {
+                fail("round " + round + " isn't linearizable:" + System.lineSeparator()
+                        + Linearizability.toString(history));
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <O> Script<O>[] newScripts(Script<O> script) {
+        Script<O>[] scripts = new Script[THREADS];
+        Arrays.fill(scripts, script);
+        return scripts;
+    }
+
+    /**
+     * Each thread does random queue operations, enqueuing values that tell who enqueued them
+     */
+    private static <Q> Script<Q> queueScript(QueueCalls<Q> calls) {
+        return (recorder, thread) -> {
+            Random random = new Random();
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                switch (random.nextInt(4)) {
+                    case 0:
+                    case 1:
+                        recorder.invoke(thread, "enqueue", thread * 100 + i, calls::enqueue);
+                        break;
+                    case 2:
+                        recorder.invoke(thread, "dequeue", null, (q, arg) -> calls.dequeue(q));
+                        break;
+                    default:
+                        recorder.invoke(thread, calls.hasPeek() ? "peek" : "isEmpty", null,
+                                (q, arg) -> calls.hasPeek() ? calls.peek(q) : calls.isEmpty(q));
+                        break;
+                }
+            }
+        };
+    }
+
+    private interface QueueCalls<Q> {
+        Object enqueue(Q q, Object v) throws Exception;
+
+        Object dequeue(Q q) throws Exception;
+
+        boolean hasPeek();
+
+        Object peek(Q q);
+
+        Object isEmpty(Q q);
+    }
+
+    private static QueueCalls<ConcurrentQueue_<Object>> concurrentQueueCalls(boolean peek) {
+        return new QueueCalls<ConcurrentQueue_<Object>>() {
+            @Override
+            public Object enqueue(ConcurrentQueue_<Object> q, Object v) {
+                q.enqueue(v);
+                return null;
+            }
+
+            @Override
+            public Object dequeue(ConcurrentQueue_<Object> q) {
+                return q.tryDequeue();
+            }
+
+            @Override
+            public boolean hasPeek() {
+                return peek;
+            }
+
+            @Override
+            public Object peek(ConcurrentQueue_<Object> q) {
+                return q.peek();
+            }
+
+            @Override
+            public Object isEmpty(ConcurrentQueue_<Object> q) {
+                return q.isEmpty();
+            }
+        };
+    }
+
+    private static final QueueCalls<LockFreeDualQueue_<Object>> DUAL_QUEUE_CALLS = new QueueCalls<LockFreeDualQueue_<Object>>() {
+        @Override
+        public Object enqueue(LockFreeDualQueue_<Object> q, Object v) {
+            q.enqueue(v);
+            return null;
+        }
+
+        @Override
+        public Object dequeue(LockFreeDualQueue_<Object> q) throws InterruptedException {
+            // a request that times out returns null, which is only linearizable if the queue was empty
+            return q.poll(1, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public boolean hasPeek() {
+            return false;
+        }
+
+        @Override
+        public Object peek(LockFreeDualQueue_<Object> q) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object isEmpty(LockFreeDualQueue_<Object> q) {
+            return q.isEmpty();
+        }
+    };
+
+    /**
+     * Each thread enters the region and, if it entered, leaves it
+     */
+    private static final Script<ThrottledRegion_> ENTER_LEAVE = (recorder, thread) -> {
+        for (int i = 0; i < OPS_PER_THREAD / 2; i++) {
+            Object entered = recorder.invoke(thread, "tryEnter", null, (r, arg) -> r.tryEnter(1));
+            if ((Boolean) entered) {
+                recorder.invoke(thread, "leave", null, (r, arg) -> {
+                    r.leave(1);
+                    return null;
+                });
+            }
+        }
+    };
+
+    @Test
+    public void CheckerRejectsNonLinearizableHistoryTest() throws Exception {
+        // T1 enqueues 1 and then 2, T0 dequeues 2 after both returned
+        Operation enqueue1 = new Operation(1, "enqueue", 1);
+        enqueue1.invoked = 0;
+        enqueue1.returned = 1;
+        Operation enqueue2 = new Operation(1, "enqueue", 2);
+        enqueue2.invoked = 2;
+        enqueue2.returned = 3;
+        Operation dequeue = new Operation(0, "dequeue", null);
+        dequeue.result = 2;
+        dequeue.invoked = 4;
+        dequeue.returned = 5;
+        assertFalse(Linearizability.isLinearizable(Arrays.asList(enqueue1, enqueue2, dequeue), QUEUE));
+
+        // overlapping the first enqueue, the dequeue may see the queue empty
+        dequeue.result = null;
+        dequeue.invoked = 0;
+        assertTrue(Linearizability.isLinearizable(Arrays.asList(enqueue1, enqueue2, dequeue), QUEUE));
+        dequeue.invoked = 2;
+        assertFalse(Linearizability.isLinearizable(Arrays.asList(enqueue1, enqueue2, dequeue), QUEUE));
+    }
+
+    @Test
+    public void ConcurrentQueueIsLinearizableTest() throws Exception {
+        check(QUEUE, ConcurrentQueue_::new, queueScript(concurrentQueueCalls(true)));
+        check(QUEUE, ConcurrentQueue_::new, queueScript(concurrentQueueCalls(false)));
+    }
+
+    @Test
+    public void ConcurrentQueueWithEliminationIsLinearizableTest() throws Exception {
+        check(QUEUE, () -> new ConcurrentQueue_<>(true), queueScript(concurrentQueueCalls(false)));
+    }
+
+    @Test
+    public void LockFreeDualQueueIsLinearizableTest() throws Exception {
+        check(QUEUE, LockFreeDualQueue_::new, queueScript(DUAL_QUEUE_CALLS));
+        check(QUEUE, () -> new LockFreeDualQueue_<>(true), queueScript(DUAL_QUEUE_CALLS));
+    }
+
+    @Test
+    public void ThrottledRegionIsLinearizableTest() throws Exception {
+        check(region(1), () -> new ThrottledRegion_(1, THREADS, 1), ENTER_LEAVE);
+        check(region(2), () -> new ThrottledRegion_(2, THREADS, 1), ENTER_LEAVE);
+        check(region(1), () -> new ThrottledRegion_(1, THREADS, 2, 1), ENTER_LEAVE);
+    }
+}
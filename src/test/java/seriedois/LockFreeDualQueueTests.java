@@ -0,0 +1,389 @@
+package seriedois;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LockFreeDualQueueTests {
+
+    public LockFreeDualQueue_<Integer> queue;
+    public Queue<Exception> exceptionQueue;
+
+    @Before
+    public void setUp() {
+        queue = new LockFreeDualQueue_<>();
+        exceptionQueue = new LinkedList<>();
+    }
+
+    @Test
+    public void DataAreDequeuedInOrderTest() throws Exception {
+        assertTrue(queue.isEmpty());
+        for (int i = 0; i < 5; i++) {
+            queue.enqueue(i);
+        }
+        assertFalse(queue.isEmpty());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, (int) queue.dequeue());
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void EnqueueFulfillsWaitingRequestTest() throws Exception {
+        final Integer[] received = new Integer[1];
+        Thread consumer = new Thread(() -> {
+            try {
+                received[0] = queue.dequeue();
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+
+        assertTrue(queue.isEmpty());    // holds a request, no data
+        queue.enqueue(42);
+        consumer.join(1000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals(42, (int) received[0]);
+        assertTrue(queue.isEmpty());
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void IdleConsumerIsParkedTest() throws Exception {
+        final Integer[] received = new Integer[1];
+        Thread consumer = new Thread(() -> {
+            try {
+                received[0] = queue.dequeue();
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        consumer.start();
+        Thread.sleep(100);
+
+        assertEquals(Thread.State.WAITING, consumer.getState());   // parked, not spinning
+        queue.enqueue(7);
+        consumer.join(1000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals(7, (int) received[0]);
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void EveryItemIsConsumedOnceTest() throws Exception {
+        final int ITEMS = 20000;
+        final AtomicInteger left = new AtomicInteger(ITEMS);
+        int[] counts = ProducerConsumerFixture.run(1, ITEMS, 4,
+                ProducerConsumerFixture.each(queue::enqueue),
+                ProducerConsumerFixture.untilNull(() -> left.getAndDecrement() > 0 ? queue.dequeue() : null));
+
+        ProducerConsumerFixture.assertEachOnce(counts);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void PollTimesOutOnEmptyQueueTest() throws Exception {
+        long past = System.currentTimeMillis();
+        assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+        long now = System.currentTimeMillis();
+
+        assertTrue((now - past) >= 100);
+        assertNull(queue.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void CancelledRequestsDontReceiveDataTest() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+        }
+        queue.enqueue(1);
+        queue.enqueue(2);
+
+        assertFalse(queue.isEmpty());
+        assertEquals(1, (int) queue.poll(0, TimeUnit.MILLISECONDS));
+        assertEquals(2, (int) queue.poll(0, TimeUnit.MILLISECONDS));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void CancelledRequestsBehindWaitingConsumerAreUnlinkedTest() throws Exception {
+        final Integer[] received = new Integer[1];
+        Thread consumer = new Thread(() -> {
+            try {
+                received[0] = queue.dequeue();
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        consumer.start();
+        while (queue.getWaitingConsumerCount() == 0) {
+            Thread.yield();
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            assertNull(queue.poll(1, TimeUnit.MICROSECONDS));
+        }
+        // the waiting request, and the last cancelled one an enqueuer may be linking to
+        assertTrue(queue.linkedNodes() <= 2);
+        assertEquals(1, queue.getWaitingConsumerCount());
+
+        queue.enqueue(42);
+        consumer.join(1000);
+        assertEquals(42, (int) received[0]);
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void InterruptedConsumerDoesNotLoseDataTest() throws Exception {
+        Thread consumer = new Thread(() -> {
+            try {
+                queue.dequeue();
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        consumer.interrupt();
+        consumer.join();
+
+        assertEquals(1, exceptionQueue.size());
+        queue.enqueue(42);
+        assertEquals(42, (int) queue.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void TimedOutConsumersDontLoseDataTest() throws Exception {
+        final int ITEMS = 20000;
+        final AtomicInteger consumed = new AtomicInteger();
+        int[] counts = ProducerConsumerFixture.run(1, ITEMS, 4,
+                ProducerConsumerFixture.each(v -> {
+                    queue.enqueue(v);
+                    if (v % 1000 == 0) {
+                        Thread.sleep(1);
+                    }
+                }),
+                ProducerConsumerFixture.untilNull(() -> {
+                    while (consumed.get() < ITEMS) {
+                        // short timeouts, so requests are cancelled while data arrive
+                        Integer v = queue.poll(10, TimeUnit.MICROSECONDS);
+                        if (v != null) {
+                            consumed.incrementAndGet();
+                            return v;
+                        }
+                    }
+                    return null;
+                }));
+
+        ProducerConsumerFixture.assertEachOnce(counts);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void EliminationKeepsEveryItemAndProducerOrderTest() throws Exception {
+        final LockFreeDualQueue_<Integer> queue = new LockFreeDualQueue_<>(true);
+        int[] counts = ProducerConsumerFixture.runInOrder(4, 20000, 4,
+                ProducerConsumerFixture.each(queue::enqueue),
+                ProducerConsumerFixture.untilNull(() -> queue.poll(200, TimeUnit.MILLISECONDS)));
+
+        ProducerConsumerFixture.assertEachOnce(counts);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void SynchronousPutWaitsForConsumerTest() throws Exception {
+        final LockFreeDualQueue_<Integer> queue = new LockFreeDualQueue_<>(false, true);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(1);
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        producer.start();
+        Thread.sleep(100);
+
+        assertEquals(Thread.State.WAITING, producer.getState());   // parked until taken
+        assertEquals(1, (int) queue.poll(0, TimeUnit.MILLISECONDS));
+        producer.join(1000);
+
+        assertFalse(producer.isAlive());
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void SynchronousOfferTimesOutAndWithdrawsTest() throws Exception {
+        final LockFreeDualQueue_<Integer> queue = new LockFreeDualQueue_<>(false, true);
+
+        assertFalse(queue.offer(1, 0, TimeUnit.MILLISECONDS));    // nobody waiting
+        assertFalse(queue.offer(2, 50, TimeUnit.MILLISECONDS));
+        assertNull(queue.poll(0, TimeUnit.MILLISECONDS));          // both withdrawn
+        assertTrue(queue.isEmpty());
+
+        final Integer[] received = new Integer[1];
+        Thread consumer = new Thread(() -> {
+            try {
+                received[0] = queue.dequeue();
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+
+        assertTrue(queue.offer(3, 0, TimeUnit.MILLISECONDS));     // handed to the waiting consumer
+        consumer.join(1000);
+        assertEquals(3, (int) received[0]);
+    }
+
+    @Test
+    public void WithdrawnDataBehindWaitingProducerAreUnlinkedTest() throws Exception {
+        final LockFreeDualQueue_<Integer> queue = new LockFreeDualQueue_<>(false, true);
+
+        assertFalse(queue.offer(0, 1, TimeUnit.MICROSECONDS));
+        assertTrue(queue.isEmpty());    // the withdrawn datum may still be linked
+
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(1);
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        producer.start();
+        while (queue.isEmpty()) {
+            Thread.yield();
+        }
+
+        for (int i = 2; i < 1002; i++) {
+            assertFalse(queue.offer(i, 1, TimeUnit.MICROSECONDS));
+        }
+        // the waiting datum, and the last withdrawn one an enqueuer may be linking to
+        assertTrue(queue.linkedNodes() <= 2);
+
+        assertEquals(1, (int) queue.poll(0, TimeUnit.MILLISECONDS));
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void SynchronousQueueRejectsEnqueueTest() {
+        new LockFreeDualQueue_<Integer>(false, true).enqueue(1);
+    }
+
+    @Test
+    public void SynchronousHandOffsAreNotLostTest() throws Exception {
+        final LockFreeDualQueue_<Integer> queue = new LockFreeDualQueue_<>(false, true);
+        final int PRODUCERS = 2;
+        final int ITEMS = 5000;
+        final boolean[] taken = new boolean[PRODUCERS * ITEMS];
+        int[] counts = ProducerConsumerFixture.run(PRODUCERS, ITEMS, 2,
+                ProducerConsumerFixture.each(v -> {
+                    // short timeouts, so data are withdrawn while consumers arrive
+                    taken[v] = queue.offer(v, 20, TimeUnit.MICROSECONDS);
+                }),
+                ProducerConsumerFixture.untilNull(() -> queue.poll(200, TimeUnit.MILLISECONDS)));
+
+        int handedOver = 0;
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals(taken[i] ? 1 : 0, counts[i]);
+            handedOver += counts[i];
+        }
+        assertTrue(handedOver > 0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void NullDataAreRejectedTest() {
+        queue.enqueue(null);
+    }
+
+    @Test
+    public void ManyProducersAndConsumersDontLoseDataTest() throws Exception {
+        // short timeouts, so requests race with data to be linked
+        int[] counts = ProducerConsumerFixture.run(4, 20000, 4,
+                ProducerConsumerFixture.each(queue::enqueue),
+                ProducerConsumerFixture.untilNull(() -> queue.poll(100, TimeUnit.MILLISECONDS)));
+
+        ProducerConsumerFixture.assertEachOnce(counts);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void TryTransferOnlyHandsToWaitingConsumerTest() throws Exception {
+        assertFalse(queue.hasWaitingConsumer());
+        assertFalse(queue.tryTransfer(1));
+        assertTrue(queue.isEmpty());    // not enqueued
+
+        final Integer[] received = new Integer[2];
+        Thread[] consumers = new Thread[2];
+        for (int i = 0; i < consumers.length; i++) {
+            int id = i;
+            consumers[i] = new Thread(() -> {
+                try {
+                    received[id] = queue.dequeue();
+                } catch (InterruptedException e) {
+                    exceptionQueue.add(e);
+                }
+            });
+            consumers[i].start();
+            Thread.sleep(50);
+        }
+
+        assertTrue(queue.hasWaitingConsumer());
+        assertEquals(2, queue.getWaitingConsumerCount());
+        assertTrue(queue.tryTransfer(2));
+        assertEquals(1, queue.getWaitingConsumerCount());
+        assertTrue(queue.tryTransfer(3));
+        for (Thread t : consumers) {
+            t.join(1000);
+        }
+
+        assertEquals(2, (int) received[0]);
+        assertEquals(3, (int) received[1]);
+        assertFalse(queue.hasWaitingConsumer());
+        assertEquals(0, queue.getWaitingConsumerCount());
+    }
+
+    @Test
+    public void TransferWaitsUntilConsumedTest() throws Exception {
+        Thread producer = new Thread(() -> {
+            try {
+                queue.transfer(1);
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        producer.start();
+        Thread.sleep(100);
+
+        assertEquals(Thread.State.WAITING, producer.getState());
+        assertFalse(queue.isEmpty());
+        assertEquals(1, (int) queue.dequeue());
+        producer.join(1000);
+
+        assertFalse(producer.isAlive());
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void TimedTransferWithdrawsDatumTest() throws Exception {
+        queue.enqueue(1);
+
+        assertFalse(queue.tryTransfer(2, 50, TimeUnit.MILLISECONDS));
+        assertEquals(1, (int) queue.poll(0, TimeUnit.MILLISECONDS));
+        assertNull(queue.poll(0, TimeUnit.MILLISECONDS));    // 2 was withdrawn
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,115 @@
+package seriedois;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LockFreePriorityQueueTests {
+
+    public LockFreePriorityQueue_<Integer> queue;
+    public Queue<Exception> exceptionQueue;
+
+    @Before
+    public void setUp() {
+        queue = new LockFreePriorityQueue_<>();
+        exceptionQueue = new LinkedList<>();
+    }
+
+    @Test
+    public void LowestPriorityFirstAndFifoOnTiesTest() throws Exception {
+        assertTrue(queue.isEmpty());
+        assertNull(queue.tryDequeueMin());
+
+        queue.enqueue(5, 50);
+        queue.enqueue(1, 10);
+        queue.enqueue(3, 30);
+        queue.enqueue(1, 11);
+        queue.enqueue(-2, -20);
+        queue.enqueue(3, 31);
+
+        int[] expected = {-20, 10, 11, 30, 31, 50};
+        for (int v : expected) {
+            assertEquals(v, (int) queue.tryDequeueMin());
+        }
+        assertNull(queue.tryDequeueMin());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void ConcurrentEnqueuesKeepOrderTest() throws Exception {
+        final int PRODUCERS = 4;
+        final int ITEMS = 5000;
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            int seed = p;
+            producers[p] = new Thread(() -> {
+                java.util.Random rnd = new java.util.Random(seed);
+                for (int i = 0; i < ITEMS; i++) {
+                    int priority = rnd.nextInt(1000);
+                    queue.enqueue(priority, priority);
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+
+        int last = Integer.MIN_VALUE, count = 0;
+        Integer v;
+        while ((v = queue.tryDequeueMin()) != null) {
+            assertTrue(v >= last);
+            last = v;
+            count++;
+        }
+        assertEquals(PRODUCERS * ITEMS, count);
+    }
+
+    @Test
+    public void EveryItemIsConsumedOnceTest() throws Exception {
+        everyItemIsConsumedOnce(queue);
+    }
+
+    @Test
+    public void RelaxedModeConsumesEveryItemOnceTest() throws Exception {
+        LockFreePriorityQueue_<Integer> relaxed = new LockFreePriorityQueue_<>(8);
+        assertTrue(relaxed.isRelaxed());
+        everyItemIsConsumedOnce(relaxed);
+    }
+
+    private void everyItemIsConsumedOnce(LockFreePriorityQueue_<Integer> queue) throws Exception {
+        int[] counts = ProducerConsumerFixture.run(4, 10000, 4,
+                ProducerConsumerFixture.each(v -> queue.enqueue(v % 97, v)),
+                ProducerConsumerFixture.untilNull(() -> queue.pollMin(200, TimeUnit.MILLISECONDS)));
+
+        ProducerConsumerFixture.assertEachOnce(counts);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void ParkedConsumerIsWokenByEnqueueTest() throws Exception {
+        final Integer[] received = new Integer[1];
+        Thread consumer = new Thread(() -> {
+            try {
+                received[0] = queue.dequeueMin();
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        consumer.start();
+        Thread.sleep(100);
+
+        assertEquals(Thread.State.WAITING, consumer.getState());
+        queue.enqueue(7, 42);
+        consumer.join(1000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals(42, (int) received[0]);
+        assertEquals(0, exceptionQueue.size());
+    }
+}
@@ -0,0 +1,154 @@
+package seriedois;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Producer and consumer threads that pass distinct integers through a queue and count how many
+ * times each one was consumed. Producer p produces the values from p * items to (p + 1) * items - 1.
+ */
+final class ProducerConsumerFixture {
+
+    /**
+     * What each producer thread does
+     */
+    interface Producer {
+        void produce(int first, int count) throws Exception;
+    }
+
+    /**
+     * What each consumer thread does until it returns false
+     */
+    interface Consumer {
+
+        /**
+         * @param sink receives the values consumed
+         * @return false when the consumer is done
+         */
+        boolean consume(IntConsumer sink) throws Exception;
+    }
+
+    interface Put {
+        void put(int v) throws Exception;
+    }
+
+    interface Take {
+        Integer take() throws Exception;
+    }
+
+    private static final long JOIN_MILLIS = 30000;
+
+    private ProducerConsumerFixture() {
+    }
+
+    /**
+     * @return a producer that puts its values one by one, in order
+     */
+    static Producer each(Put put) {
+        return (first, count) -> {
+            for (int i = 0; i < count; i++) {
+                put.put(first + i);
+            }
+        };
+    }
+
+    /**
+     * @return a consumer that takes one value at a time, until take returns null
+     */
+    static Consumer untilNull(Take take) {
+        return sink -> {
+            Integer v = take.take();
+            if (v == null) {
+                return false;
+            }
+            sink.accept(v);
+            return true;
+        };
+    }
+
+    /**
+     * Starts the consumers, then the producers, and waits for all of them
+     *
+     * @return how many times each value was consumed
+     */
+    static int[] run(int producers, int items, int consumers, Producer producer, Consumer consumer) throws Exception {
+        return run(producers, items, consumers, producer, consumer, false);
+    }
+
+    /**
+     * {@link #run}, also checking that each consumer sees the values of each producer in order
+     */
+    static int[] runInOrder(int producers, int items, int consumers, Producer producer, Consumer consumer) throws Exception {
+        return run(producers, items, consumers, producer, consumer, true);
+    }
+
+    /**
+     * Asserts that every value was consumed once
+     */
+    static void assertEachOnce(int[] counts) {
+        for (int v = 0; v < counts.length; v++) {
+            assertEquals("value " + v, 1, counts[v]);
+        }
+    }
+
+    private static int[] run(int producers, int items, int consumers, Producer producer, Consumer consumer,
+                             boolean inOrder) throws Exception {
+        final int[] counts = new int[producers * items];
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+
+        Thread[] threads = new Thread[consumers + producers];
+        for (int c = 0; c < consumers; c++) {
+            threads[c] = new Thread(() -> {
+                int[] last = new int[producers];
+                Arrays.fill(last, -1);
+                IntConsumer sink = v -> {
+                    if (inOrder) {
+                        if (v % items <= last[v / items]) {
+                            failures.add(new IllegalStateException("out of order " + v));
+                        }
+                        last[v / items] = v % items;
+                    }
+                    synchronized (counts) {
+                        counts[v]++;
+                    }
+                };
+                try {
+                    while (consumer.consume(sink)) {
+                        // next
+                    }
+                } catch (Exception e) {
+                    failures.add(e);
+                }
+            });
+        }
+        for (int p = 0; p < producers; p++) {
+            int first = p * items;
+            threads[consumers + p] = new Thread(() -> {
+                try {
+                    producer.produce(first, items);
+                } catch (Exception e) {
+                    failures.add(e);
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(JOIN_MILLIS);
+            assertFalse("a thread is stuck", t.isAlive());
+        }
+
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        synchronized (counts) {
+            return counts;
+        }
+    }
+}
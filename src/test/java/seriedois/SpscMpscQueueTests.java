@@ -0,0 +1,81 @@
+package seriedois;
+
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SpscMpscQueueTests {
+
+    public Queue<Exception> exceptionQueue = new LinkedList<>();
+
+    @Test
+    public void SpscKeepsOrderAndBoundTest() throws Exception {
+        SpscConcurrentQueue_<Integer> queue = new SpscConcurrentQueue_<>(2);
+        assertTrue(queue.tryEnqueue(1));
+        assertTrue(queue.tryEnqueue(2));
+        assertFalse(queue.tryEnqueue(3));
+        assertFalse(queue.offer(3, 20, TimeUnit.MILLISECONDS));
+        assertEquals(1, (int) queue.tryDequeue());
+        assertTrue(queue.tryEnqueue(3));
+        assertEquals(2, (int) queue.tryDequeue());
+        assertEquals(3, (int) queue.tryDequeue());
+        assertNull(queue.tryDequeue());
+        assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void SpscTransfersInOrderBetweenTwoThreadsTest() throws Exception {
+        SpscConcurrentQueue_<Integer> queue = new SpscConcurrentQueue_<>(16);
+        final int ITEMS = 100000;
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < ITEMS; i++) {
+                    queue.enqueue(i);
+                }
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        producer.start();
+        for (int i = 0; i < ITEMS; i++) {
+            assertEquals(i, (int) queue.dequeue());
+        }
+        producer.join();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void MpscKeepsOrderOfEachProducerTest() throws Exception {
+        MpscConcurrentQueue_<Integer> queue = new MpscConcurrentQueue_<>();
+        final int PRODUCERS = 3;
+        final int ITEMS = 50000;
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            int base = p * ITEMS;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < ITEMS; i++) {
+                    queue.enqueue(base + i);
+                }
+            });
+            producers[p].start();
+        }
+
+        int[] last = {-1, -1, -1};
+        for (int n = 0; n < PRODUCERS * ITEMS; n++) {
+            int v = queue.dequeue();
+            int producer = v / ITEMS;
+            assertTrue(v % ITEMS > last[producer]);
+            last[producer] = v % ITEMS;
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        assertNull(queue.tryDequeue());
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -6,6 +6,9 @@ import org.junit.Test;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import utils.VirtualTimeSource;
 
 import static org.junit.Assert.*;
 
@@ -189,4 +192,442 @@ public class ThrottledRegionTests {
 
         assertEquals(0, exceptionQueue.size());
     }
+
+    @Test
+    public void AdaptiveLimitGrowsWhileRegionIsUsedTest() throws Exception {
+        region = new ThrottledRegion_(() -> new AimdLimit(2, 1, 10, 0.5, 1000), 2, 100);
+
+        assertEquals(2, region.getLimit(ID1));
+        assertTrue(region.tryEnter(ID1));
+        assertTrue(region.tryEnter(ID1));
+        assertFalse(region.tryEnter(ID1));
+        region.leave(ID1);  // one still inside, limit is being used
+        assertEquals(3, region.getLimit(ID1));
+        assertTrue(region.tryEnter(ID1));
+        assertTrue(region.tryEnter(ID1));
+        assertEquals(2, region.getLimit(ID2));  // other keys are not affected
+    }
+
+    @Test
+    public void LimitOfUnseenKeyDoesntCreateAlgorithmsTest() throws Exception {
+        final int[] created = new int[1];
+        region = new ThrottledRegion_(() -> {
+            created[0]++;
+            return new AimdLimit(2, 1, 10, 0.5, 1000);
+        }, 2, 100);
+        int before = created[0];
+
+        for (int key = 0; key < 100; key++) {
+            assertEquals(2, region.getLimit(key));
+        }
+        assertEquals(before, created[0]);
+        assertTrue(region.tryEnter(ID1));
+        assertEquals(before + 1, created[0]);
+    }
+
+    @Test
+    public void AdaptiveLimitShrinksWhenLatencyGoesUpTest() throws Exception {
+        region = new ThrottledRegion_(() -> new AimdLimit(4, 1, 10, 0.5, 10), 2, 100);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(region.tryEnter(ID1));
+        }
+        Thread.sleep(50);
+        region.leave(ID1);
+        assertEquals(2, region.getLimit(ID1));
+
+        // 3 still inside with a limit of 2
+        assertFalse(region.tryEnter(ID1));
+        region.leave(ID1);
+        region.leave(ID1);
+        region.leave(ID1);
+        assertEquals(1, region.getLimit(ID1));
+        assertTrue(region.tryEnter(ID1));
+        assertFalse(region.tryEnter(ID1));
+    }
+
+    @Test
+    public void RateLimitedRegionWaitsForTokensTest() throws Exception {
+        region = new ThrottledRegion_(Integer.MAX_VALUE, 2, 1000, 10, 2);
+
+        assertTrue(region.tryEnter(ID1));
+        assertTrue(region.tryEnter(ID1));   // burst of 2
+
+        long past = System.currentTimeMillis();
+        assertTrue(region.tryEnter(ID1));   // next token in 100 ms
+        long now = System.currentTimeMillis();
+        assertTrue((now - past) >= 50);
+        assertTrue((now - past) < 1000);
+
+        assertTrue(region.tryEnter(ID2));   // each key has its own bucket
+    }
+
+    @Test
+    public void FullRateLimitedRegionParksWaiterTest() throws Exception {
+        for (int resolution : new int[]{0, 10}) {
+            region = new ThrottledRegion_(1, null, 1, 500, 1000.0, 10, resolution);
+            assertTrue(region.tryEnter(ID1));   // full, with tokens left
+
+            Thread waiter = new Thread(() -> {
+                try {
+                    region.tryEnter(ID1);
+                } catch (InterruptedException e) {
+                    exceptionQueue.add(e);
+                }
+            });
+            waiter.start();
+            Thread.sleep(50);
+
+            // waits for a leave or the timeout, not for the tokens it already has
+            for (int i = 0; i < 20; i++) {
+                Thread.State state = waiter.getState();
+                assertTrue("resolution " + resolution + ": " + state,
+                        state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING);
+                Thread.sleep(10);
+            }
+            region.leave(ID1);
+            waiter.join();
+        }
+
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void WaiterLeftWithoutTokensWaitsForThemTest() throws Exception {
+        for (int resolution : new int[]{0, 10}) {
+            region = new ThrottledRegion_(1, null, 1, 1000, 10.0, 1, resolution);
+            assertTrue(region.tryEnter(ID1));   // full, and the only token taken
+
+            final boolean[] entered = new boolean[1];
+            Thread waiter = new Thread(() -> {
+                try {
+                    entered[0] = region.tryEnter(ID1);
+                } catch (InterruptedException e) {
+                    exceptionQueue.add(e);
+                }
+            });
+            waiter.start();
+            Thread.sleep(20);
+            region.leave(ID1);  // room, but the next token is in about 100 ms
+
+            long past = System.currentTimeMillis();
+            waiter.join();
+            assertTrue("resolution " + resolution, entered[0]);
+            assertTrue(System.currentTimeMillis() - past < 500);
+        }
+
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void RateLimitedRegionFailByTimeoutTest() throws Exception {
+        region = new ThrottledRegion_(Integer.MAX_VALUE, 2, 10, 1, 1);
+
+        assertTrue(region.tryEnter(ID1));
+        assertFalse(region.tryEnter(ID1));
+    }
+
+    @Test
+    public void EnterWithSeveralPermitsTest() throws Exception {
+        region = new ThrottledRegion_(3, 2, 100);
+
+        assertTrue(region.tryEnter(ID1, 2));
+        assertFalse(region.tryEnter(ID1, 2));
+        assertTrue(region.tryEnter(ID1));
+        region.leave(ID1, 2);
+        assertTrue(region.tryEnter(ID1, 2));
+    }
+
+    @Test
+    public void HeavyWaiterIsNotOvertakenTest() throws Exception {
+        region = new ThrottledRegion_(2, 1, 100000);
+        assertTrue(region.tryEnter(ID1, 2));
+
+        Thread heavy = new Thread(() -> {
+            try {
+                assertTrue(region.tryEnter(ID1, 2));
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        heavy.start();
+        Thread.sleep(100);
+
+        region.leave(ID1);
+        assertFalse(region.tryEnter(ID1));  // a permit is free but the heavy waiter goes first
+        region.leave(ID1);
+        heavy.join();
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void EnterAllIsAllOrNothingTest() throws Exception {
+        region = new ThrottledRegion_(1, 1, 100);
+
+        assertTrue(region.tryEnter(ID2));
+        assertFalse(region.tryEnterAll(new int[]{ID2, ID1}));
+        assertTrue(region.tryEnter(ID1));   // ID1 was released when ID2 failed
+        region.leave(ID1);
+        region.leave(ID2);
+
+        assertTrue(region.tryEnterAll(new int[]{ID2, ID1}));
+        assertFalse(region.tryEnter(ID1));
+        assertFalse(region.tryEnter(ID2));
+        region.leaveAll(new int[]{ID2, ID1});
+        assertTrue(region.tryEnter(ID1));
+        assertTrue(region.tryEnter(ID2));
+    }
+
+    @Test
+    public void EnterAllHoldsNothingWhileWaitingTest() throws Exception {
+        region = new ThrottledRegion_(1, 1, 5000);
+        assertTrue(region.tryEnter(ID2));
+
+        final boolean[] entered = new boolean[1];
+        Thread waiter = new Thread(() -> {
+            try {
+                entered[0] = region.tryEnterAll(new int[]{ID1, ID2});
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+
+        assertTrue(region.tryEnter(ID1));   // released while waiting for ID2
+        region.leave(ID1);
+        region.leave(ID2);
+        waiter.join();
+
+        assertTrue(entered[0]);
+        region.leaveAll(new int[]{ID1, ID2});
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void LeaveAllSamplesRepeatedKeyOnceTest() throws Exception {
+        final int[] samples = {0};
+        region = new ThrottledRegion_(() -> new ConcurrencyLimit() {
+            @Override
+            public int getLimit() {
+                return 4;
+            }
+
+            @Override
+            public int onSample(long rttNanos, int inFlight) {
+                samples[0]++;
+                return 4;
+            }
+        }, 10, 100);
+
+        assertTrue(region.tryEnter(ID1));
+        assertTrue(region.tryEnterAll(new int[]{ID1, ID1}));
+        region.leaveAll(new int[]{ID1, ID1});
+        assertEquals(1, samples[0]);    // the other thread's entry is still inside
+        region.leave(ID1);
+        assertEquals(2, samples[0]);
+    }
+
+    @Test
+    public void EnterAllInOppositeOrderDoesNotDeadlockTest() throws Exception {
+        region = new ThrottledRegion_(1, 10, 100000);
+        int[][] keys = {{ID1, ID2}, {ID2, ID1}};
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            int[] mine = keys[i % 2];
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 500; j++) {
+                        assertTrue(region.tryEnterAll(mine));
+                        region.leaveAll(mine);
+                    }
+                } catch (InterruptedException e) {
+                    exceptionQueue.add(e);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join(10000);
+            assertFalse(t.isAlive());
+        }
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void StatsTellRejectionsApartTest() throws Exception {
+        region = new ThrottledRegion_(1, 1, 50);
+
+        assertTrue(region.tryEnter(ID1));
+        Thread waiter = new Thread(() -> {
+            try {
+                assertFalse(region.tryEnter(ID1));
+            } catch (InterruptedException e) {
+                exceptionQueue.add(e);
+            }
+        });
+        waiter.start();
+        Thread.sleep(20);
+        assertEquals(1, region.getStats(ID1).getWaiting());
+        assertFalse(region.tryEnter(ID1));  // the only waiting place is taken
+        waiter.join();
+        assertTrue(region.tryEnter(ID2));
+
+        ThrottledRegionStats stats = region.getStats(ID1);
+        assertEquals(1, stats.getEntered());
+        assertEquals(1, stats.getRejectedFull());
+        assertEquals(1, stats.getRejectedTimeout());
+        assertEquals(1, stats.getInside());
+        assertEquals(0, stats.getWaiting());
+        assertTrue(stats.getWaitPercentile(50) >= 32 * 1000);
+
+        ThrottledRegionStats all = region.getStats();
+        assertEquals(2, all.getEntered());
+        assertEquals(2, all.getInside());
+
+        assertEquals(ID1, (int) region.getHottestKeys(1).get(0).getKey());
+        assertEquals(2, region.getHottestKeys(5).size());
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void TimerWheelExpiresWaitersTogetherTest() throws Exception {
+        region = new ThrottledRegion_(1, 10, 200, 50);
+        assertTrue(region.tryEnter(ID1));
+
+        long[] waited = new long[5];
+        Thread[] threads = new Thread[waited.length];
+        for (int i = 0; i < threads.length; i++) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    long past = System.currentTimeMillis();
+                    assertFalse(region.tryEnter(ID1));
+                    waited[id] = System.currentTimeMillis() - past;
+                } catch (InterruptedException e) {
+                    exceptionQueue.add(e);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (long w : waited) {
+            assertTrue(w >= 190);
+            assertTrue(w < 1000);
+        }
+        assertEquals(5, region.getStats(ID1).getRejectedTimeout());
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void TimerWheelWaiterEntersWhenSomeoneLeavesTest() throws Exception {
+        region = new ThrottledRegion_(1, 10, 100000, 10);
+        assertTrue(region.tryEnter(ID1));
+
+        Thread t = new Thread(this::EnterRegionSuccessfully);
+        t.start();
+        Thread.sleep(50);
+        region.leave(ID1);
+        t.join();
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void InterruptAfterGrantIsCountedAsEnteredTest() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            region = new ThrottledRegion_(1, 1, 100000);
+            assertTrue(region.tryEnter(ID1));
+            final boolean[] entered = new boolean[1];
+            Thread t = new Thread(() -> {
+                try {
+                    entered[0] = region.tryEnter(ID1);
+                } catch (InterruptedException e) {
+                    // cancelled before the grant
+                }
+            });
+            t.start();
+            while (region.getStats(ID1).getWaiting() == 0) {
+                Thread.yield();
+            }
+            t.interrupt();
+            region.leave(ID1);
+            t.join();
+
+            ThrottledRegionStats stats = region.getStats(ID1);
+            assertEquals(entered[0] ? 2 : 1, stats.getEntered());
+            assertEquals(entered[0] ? 1 : 0, stats.getInside());
+        }
+    }
+
+    @Test
+    public void TimerWheelThreadExitsWhenIdleTest() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            region = new ThrottledRegion_(1, 1, 1, 1);
+            assertTrue(region.tryEnter(ID1));
+            assertFalse(region.tryEnter(ID1));
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (timerWheelThreads() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, timerWheelThreads());
+    }
+
+    private static long timerWheelThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("TimerWheel"))
+                .count();
+    }
+
+    @Test
+    public void TimeoutFollowsVirtualClockTest() throws Exception {
+        VirtualTimeSource clock = new VirtualTimeSource();
+        region = new ThrottledRegion_(1, null, 1, 3600, 0, 0, 0, clock);
+        assertTrue(region.tryEnter(ID1));
+
+        Thread t = new Thread(this::CannotEnterRegion);
+        t.start();
+        clock.awaitSleeping(1);
+        clock.advance(3599, TimeUnit.MILLISECONDS);
+        t.join(50);
+        assertTrue(t.isAlive());    // real time doesn't count
+
+        clock.advance(1, TimeUnit.MILLISECONDS);
+        t.join();
+        assertEquals(1, region.getStats(ID1).getRejectedTimeout());
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void TimerWheelFollowsVirtualClockTest() throws Exception {
+        VirtualTimeSource clock = new VirtualTimeSource();
+        region = new ThrottledRegion_(1, null, 1, 3600, 0, 0, 10, clock);
+        assertTrue(region.tryEnter(ID1));
+
+        Thread t = new Thread(this::CannotEnterRegion);
+        t.start();
+        clock.awaitSleeping(1);     // the wheel thread, once the timeout is scheduled
+        clock.advance(3610, TimeUnit.MILLISECONDS);
+        t.join();
+        assertEquals(1, region.getStats(ID1).getRejectedTimeout());
+        assertEquals(0, exceptionQueue.size());
+    }
+
+    @Test
+    public void DayOfRateLimitReplaysOnVirtualClockTest() throws Exception {
+        VirtualTimeSource clock = new VirtualTimeSource();
+        region = new ThrottledRegion_(1, null, 1, 0, 1 / 60.0, 1, 0, clock);   // one entry per minute
+
+        for (int minute = 0; minute < 24 * 60; minute++) {
+            assertTrue(region.tryEnter(ID1));
+            region.leave(ID1);
+            assertFalse(region.tryEnter(ID1));
+            clock.advance(1, TimeUnit.MINUTES);
+        }
+        assertEquals(24 * 60, region.getStats(ID1).getEntered());
+        assertEquals(24 * 60, region.getStats(ID1).getRejectedTimeout());
+    }
 }
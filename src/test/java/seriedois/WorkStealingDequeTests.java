@@ -0,0 +1,143 @@
+package seriedois;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class WorkStealingDequeTests {
+
+    public WorkStealingDeque_<Integer> deque;
+
+    @Before
+    public void setUp() {
+        deque = new WorkStealingDeque_<>(2);
+    }
+
+    @Test
+    public void OwnerPopsLifoThievesStealFifoTest() {
+        assertNull(deque.pop());
+        assertNull(deque.steal());
+
+        deque.push(1);
+        deque.push(2);
+        deque.push(3);
+        assertEquals(3, deque.size());
+
+        assertEquals(1, (int) deque.steal());
+        assertEquals(3, (int) deque.pop());
+        assertEquals(2, (int) deque.pop());
+        assertNull(deque.pop());
+        assertNull(deque.steal());
+        assertTrue(deque.isEmpty());
+    }
+
+    @Test
+    public void GrowsKeepingTheElementsTest() {
+        for (int i = 0; i < 10; i++) {
+            deque.push(i);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, (int) deque.steal());
+        }
+        for (int i = 10; i < 100; i++) {
+            deque.push(i);
+        }
+        for (int i = 99; i >= 4; i--) {
+            assertEquals(i, (int) deque.pop());
+        }
+        assertTrue(deque.isEmpty());
+    }
+
+    @Test
+    public void LastElementIsTakenOnceTest() throws Exception {
+        // the owner pops every element right after pushing it, so each one is the last
+        // element and thieves race the owner for it
+        final int ITEMS = 200000;
+        final AtomicIntegerArray counts = new AtomicIntegerArray(ITEMS);
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] thieves = new Thread[3];
+        for (int i = 0; i < thieves.length; i++) {
+            thieves[i] = new Thread(() -> {
+                while (true) {
+                    Integer v = deque.steal();
+                    if (v != null) {
+                        counts.incrementAndGet(v);
+                    } else if (done.get()) {
+                        return;
+                    }
+                }
+            });
+            thieves[i].start();
+        }
+        int popped = 0;
+        for (int i = 0; i < ITEMS; i++) {
+            deque.push(i);
+            Integer v = deque.pop();
+            if (v != null) {
+                counts.incrementAndGet(v);
+                popped++;
+            }
+        }
+        done.set(true);
+        for (Thread t : thieves) {
+            t.join();
+        }
+
+        for (int i = 0; i < ITEMS; i++) {
+            assertEquals(1, counts.get(i));
+        }
+        assertTrue(popped > 0);
+        assertTrue(deque.isEmpty());
+    }
+
+    @Test
+    public void EveryElementIsTakenOnceWhileGrowingTest() throws Exception {
+        final int ITEMS = 200000;
+        final AtomicIntegerArray counts = new AtomicIntegerArray(ITEMS);
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] thieves = new Thread[3];
+        for (int i = 0; i < thieves.length; i++) {
+            thieves[i] = new Thread(() -> {
+                while (true) {
+                    Integer v = deque.steal();
+                    if (v != null) {
+                        counts.incrementAndGet(v);
+                    } else if (done.get()) {
+                        return;
+                    }
+                }
+            });
+            thieves[i].start();
+        }
+        // bursts of pushes make the array grow under the thieves, pops take from the other end
+        int next = 0;
+        while (next < ITEMS) {
+            for (int i = 0; i < 100 && next < ITEMS; i++) {
+                deque.push(next++);
+            }
+            for (int i = 0; i < 60; i++) {
+                Integer v = deque.pop();
+                if (v == null) {
+                    break;
+                }
+                counts.incrementAndGet(v);
+            }
+        }
+        Integer v;
+        while ((v = deque.pop()) != null) {
+            counts.incrementAndGet(v);
+        }
+        done.set(true);
+        for (Thread t : thieves) {
+            t.join();
+        }
+
+        for (int i = 0; i < ITEMS; i++) {
+            assertEquals(1, counts.get(i));
+        }
+    }
+}
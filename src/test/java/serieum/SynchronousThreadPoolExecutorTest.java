@@ -6,6 +6,9 @@ import serieum.SynchronousThreadPoolExecutor;
 
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import utils.VirtualTimeSource;
 
 import static org.junit.Assert.*;
 
@@ -142,4 +145,19 @@ public class SynchronousThreadPoolExecutorTest {
 
         assertNotEquals(id_a[0], id_b[0]);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void KeepAliveFollowsVirtualClock() throws Exception {
+        VirtualTimeSource clock = new VirtualTimeSource();
+        SynchronousThreadPoolExecutor<Thread> executor = new SynchronousThreadPoolExecutor<>(1, 1_000_000, clock);
+
+        Thread worker = executor.execute(Thread::currentThread);
+        clock.awaitSleeping(1);
+        worker.join(50);
+        assertTrue(worker.isAlive());   // real time doesn't count
+
+        clock.advance(1, TimeUnit.MILLISECONDS);
+        worker.join();
+        assertNotEquals(worker, executor.execute(Thread::currentThread));
+    }
+}
@@ -0,0 +1,133 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedLockTests {
+
+    @Test
+    public void CountsAcquisitionsAndContentionTest() throws Exception {
+        InstrumentedLock lock = new InstrumentedLock("InstrumentedLockTests.counts");
+        LockStats before = LockProfiler.getStats(lock.getName());
+
+        try (LockWrapper w = new LockWrapper(lock)) {
+            try (LockWrapper reentrant = new LockWrapper(lock)) {
+                // nested acquire is counted but doesn't contend
+            }
+        }
+        assertTrue(lock.tryLock());
+        lock.unlock();
+
+        CountDownLatch holding = new CountDownLatch(1);
+        Thread owner = new Thread(() -> {
+            try (LockWrapper w = new LockWrapper(lock)) {
+                holding.countDown();
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // leaves
+            }
+        });
+        owner.start();
+        holding.await();
+        assertFalse(lock.tryLock(1, TimeUnit.MILLISECONDS));
+        try (LockWrapper w = new LockWrapper(lock)) {
+            // waited for the owner
+        }
+        owner.join();
+
+        LockStats stats = LockProfiler.getStats(lock.getName());
+        assertEquals(before.getAcquisitions() + 5, stats.getAcquisitions());
+        assertEquals(before.getContended() + 1, stats.getContended());
+        assertTrue(stats.getWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(stats.getWaitPercentile(100) >= TimeUnit.MILLISECONDS.toMicros(10));
+    }
+
+    @Test
+    public void HoldTimeIsSampledTest() throws Exception {
+        InstrumentedLock lock = new InstrumentedLock("InstrumentedLockTests.hold");
+        for (int i = 0; i < 100 * InstrumentedLock.HOLD_SAMPLE_RATE; i++) {
+            lock.lock();
+            lock.unlock();
+        }
+        long held = 0;
+        for (long count : LockProfiler.getStats(lock.getName()).getHoldHistogram()) {
+            held += count;
+        }
+        assertTrue(held > 0);
+        assertTrue(held < 100 * InstrumentedLock.HOLD_SAMPLE_RATE);
+    }
+
+    @Test
+    public void ConditionReleasesAndReacquiresTest() throws Exception {
+        InstrumentedLock lock = new InstrumentedLock("InstrumentedLockTests.condition");
+        Condition condition = lock.newCondition();
+        final boolean[] ready = new boolean[1];
+
+        Thread signaller = new Thread(() -> {
+            try (LockWrapper w = new LockWrapper(lock)) {
+                ready[0] = true;
+                condition.signal();
+            }
+        });
+        try (LockWrapper w = new LockWrapper(lock)) {
+            signaller.start();
+            while (!ready[0]) {
+                assertTrue(condition.await(5, TimeUnit.SECONDS) || ready[0]);
+            }
+        }
+        signaller.join();
+        assertTrue(lock.tryLock());
+        lock.unlock();
+    }
+
+    @Test
+    public void ProfilerReportsMostContendedTest() throws Exception {
+        boolean wasEnabled = LockProfiler.isEnabled();
+        LockProfiler.setEnabled(false);
+        try {
+            assertTrue(LockProfiler.newLock("InstrumentedLockTests.plain") instanceof ReentrantLock);
+            LockProfiler.setEnabled(true);
+            Lock hot = LockProfiler.newLock("InstrumentedLockTests.hot");
+            assertTrue(hot instanceof InstrumentedLock);
+
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        try (LockWrapper w = new LockWrapper(hot)) {
+                            Thread.yield();
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            InstrumentedLock other = new InstrumentedLock("InstrumentedLockTests.hot");
+            other.lock();
+            other.unlock();
+
+            LockStats stats = LockProfiler.getStats("InstrumentedLockTests.hot");
+            assertEquals(801, stats.getAcquisitions());
+            assertNull(LockProfiler.getStats("InstrumentedLockTests.plain"));
+
+            List<LockStats> top = LockProfiler.getMostContended(Integer.MAX_VALUE);
+            for (int i = 1; i < top.size(); i++) {
+                assertTrue(top.get(i - 1).getWaitNanos() >= top.get(i).getWaitNanos());
+            }
+            assertEquals(1, LockProfiler.getMostContended(1).size());
+            assertTrue(LockProfiler.report(Integer.MAX_VALUE).contains("InstrumentedLockTests.hot"));
+        } finally {
+            LockProfiler.setEnabled(wasEnabled);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.Assert.*;
+
+public class LockGuardTests {
+
+    @Test
+    public void GuardReleasesOnCloseTest() throws Exception {
+        ReentrantLock lock = new ReentrantLock();
+        LockGuard guard = new LockGuard(lock);
+        try (LockGuard g = guard.lock()) {
+            assertSame(guard, g);
+            assertTrue(lock.isHeldByCurrentThread());
+        }
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void TryLockReturnsNullWhenBusyTest() throws Exception {
+        ReentrantLock lock = new ReentrantLock();
+        LockGuard guard = new LockGuard(lock);
+        Thread owner = new Thread(lock::lock);
+        owner.start();
+        owner.join();
+
+        try (LockGuard g = guard.tryLock(20, TimeUnit.MILLISECONDS)) {
+            assertNull(g);
+        }
+        assertNull(guard.tryLock());
+    }
+
+    @Test
+    public void ReadGuardsShareWriteGuardExcludesTest() throws Exception {
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        ReadWriteLockGuard guard = new ReadWriteLockGuard(lock);
+        try (LockGuard r = guard.read()) {
+            final boolean[] acquired = new boolean[2];
+            Thread other = new Thread(() -> {
+                try (LockGuard r2 = guard.readGuard().tryLock()) {
+                    acquired[0] = r2 != null;
+                }
+                try (LockGuard w = guard.writeGuard().tryLock()) {
+                    acquired[1] = w != null;
+                }
+            });
+            other.start();
+            other.join();
+
+            assertTrue(acquired[0]);
+            assertFalse(acquired[1]);
+        }
+        try (LockGuard w = guard.write()) {
+            assertTrue(lock.isWriteLockedByCurrentThread());
+        }
+        assertFalse(lock.isWriteLocked());
+    }
+
+    @Test
+    public void StampedGuardsAndOptimisticReadTest() throws Exception {
+        StampedLockGuard guard = new StampedLockGuard();
+        final long[] value = {1};
+
+        assertEquals(1, guard.optimisticReadLong(() -> value[0]));
+        try (StampedLockGuard.Guard g = guard.write()) {
+            assertTrue(guard.getLock().isWriteLocked());
+            value[0] = 2;
+        }
+        assertFalse(guard.getLock().isWriteLocked());
+        assertEquals(2, (long) guard.optimisticRead(() -> value[0]));
+
+        try (StampedLockGuard.Guard g = guard.read()) {
+            assertTrue(guard.getLock().isReadLocked());
+            try {
+                guard.read();
+                fail();
+            } catch (IllegalStateException e) {
+                // not reentrant
+            }
+        }
+        assertFalse(guard.getLock().isReadLocked());
+    }
+
+    @Test
+    public void StripedLockSerializesEachKeyTest() throws Exception {
+        StripedLock stripes = new StripedLock(5);
+        assertEquals(8, stripes.size());
+        assertSame(stripes.getLock("a"), stripes.getLock("a"));
+
+        final int[] counters = new int[4];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    Integer key = i % counters.length;
+                    try (LockGuard g = stripes.lock(key)) {
+                        counters[key]++;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        for (int c : counters) {
+            assertEquals(10000, c);
+        }
+    }
+}